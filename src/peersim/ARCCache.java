@@ -0,0 +1,179 @@
+package peersim;
+
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Adaptive replacement cache (Megiddo and Modha, "ARC: A Self-Tuning, Low Overhead Replacement Cache", FAST 2003) as a
+ * {@link CachePolicy}.<br>
+ * The cached keys are split in T1, seen once recently, and T2, seen at least twice; B1 and B2 remember the keys last evicted
+ * from them (ghosts, without their values). A miss on a ghost of B1 grows the target size p of T1, one on a ghost of B2
+ * shrinks it, so the cache moves between recency and frequency as the workload asks. All the lists are ordered from the
+ * least to the most recently used key.<br>
+ * With a byte budget, entries are replaced as above until the weight of the cached values fits; the ghost lists are then
+ * trimmed to keep T1 and B1 within the capacity and all the lists within twice the capacity.
+ *
+ * @version 1.0
+ */
+public class ARCCache extends AbstractCache {
+
+	private final int capacity;
+
+	private final long maxBytes;
+
+	private long weight = 0;
+
+	private final LinkedHashMap<BigInteger, Object> t1 = new LinkedHashMap<BigInteger, Object>();
+
+	private final LinkedHashMap<BigInteger, Object> t2 = new LinkedHashMap<BigInteger, Object>();
+
+	private final LinkedHashSet<BigInteger> b1 = new LinkedHashSet<BigInteger>();
+
+	private final LinkedHashSet<BigInteger> b2 = new LinkedHashSet<BigInteger>();
+
+	// target size of t1
+	private int p = 0;
+
+	/**
+	 * @param capacity
+	 *            maximum number of entries
+	 * @param maxBytes
+	 *            maximum weight of the values (see {@link CachePolicy#weigh(Object)}), 0 for no limit
+	 */
+	public ARCCache(int capacity, long maxBytes) {
+		this.capacity = capacity;
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	protected Object read(BigInteger key) {
+		Object value = t1.remove(key);
+		if (value == null)
+			value = t2.remove(key);
+		if (value != null)
+			t2.put(key, value); // most recently used of t2
+		return value;
+	}
+
+	@Override
+	public boolean set(BigInteger key, Object value) {
+		if (capacity <= 0)
+			return false;
+		insert(key, value);
+		notifyRemovals();
+		return contains(key);
+	}
+
+	@Override
+	protected Object unlink(BigInteger key) {
+		// the entry leaves the cache without a ghost, as it wasn't evicted
+		Object value = t1.containsKey(key) ? t1.remove(key) : t2.remove(key);
+		weight -= CachePolicy.weigh(value);
+		return value;
+	}
+
+	private void insert(BigInteger key, Object value) {
+		if (t1.containsKey(key) || t2.containsKey(key)) {
+			Object old = t1.containsKey(key) ? t1.remove(key) : t2.remove(key);
+			weight -= CachePolicy.weigh(old);
+			add(t2, key, value);
+			return;
+		}
+		if (b1.contains(key)) { // recency would have kept it: grow t1
+			p = Math.min(capacity, p + Math.max(b2.size() / b1.size(), 1));
+			replace(false, false);
+			b1.remove(key);
+			add(t2, key, value);
+			return;
+		}
+		if (b2.contains(key)) { // frequency would have kept it: shrink t1
+			p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+			replace(true, false);
+			b2.remove(key);
+			add(t2, key, value);
+			return;
+		}
+		int l1 = t1.size() + b1.size();
+		if (l1 >= capacity) {
+			if (t1.size() < capacity) {
+				removeEldest(b1);
+				replace(false, false);
+			} else {
+				evictEldest(t1);
+			}
+		} else if (l1 + t2.size() + b2.size() >= capacity) {
+			if (l1 + t2.size() + b2.size() >= 2 * capacity)
+				removeEldest(b2);
+			replace(false, false);
+		}
+		add(t1, key, value);
+	}
+
+	// cache a value as the most recently used of a list, then make room for its weight
+	private void add(LinkedHashMap<BigInteger, Object> list, BigInteger key, Object value) {
+		list.put(key, value);
+		weight += CachePolicy.weigh(value);
+		if (maxBytes <= 0 || weight <= maxBytes)
+			return;
+		while (weight > maxBytes && !(t1.isEmpty() && t2.isEmpty()))
+			replace(false, true);
+		while (t1.size() + b1.size() > capacity && !b1.isEmpty())
+			removeEldest(b1);
+		while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity && !b2.isEmpty())
+			removeEldest(b2);
+	}
+
+	// evict the least recently used key of t1 or t2 to its ghost list, if the cache is full (or forced, to fit the byte budget)
+	private void replace(boolean inB2, boolean force) {
+		if (!force && t1.size() + t2.size() < capacity)
+			return;
+		if (!t1.isEmpty() && (t1.size() > p || (inB2 && t1.size() == p) || t2.isEmpty()))
+			b1.add(evictEldest(t1));
+		else
+			b2.add(evictEldest(t2));
+	}
+
+	private BigInteger evictEldest(LinkedHashMap<BigInteger, Object> list) {
+		Iterator<Map.Entry<BigInteger, Object>> it = list.entrySet().iterator();
+		Map.Entry<BigInteger, Object> eldest = it.next();
+		it.remove();
+		weight -= CachePolicy.weigh(eldest.getValue());
+		removed(eldest.getKey(), eldest.getValue(), REMOVED_CAPACITY);
+		return eldest.getKey();
+	}
+
+	private static BigInteger removeEldest(LinkedHashSet<BigInteger> list) {
+		Iterator<BigInteger> it = list.iterator();
+		BigInteger eldest = it.next();
+		it.remove();
+		return eldest;
+	}
+
+	@Override
+	protected boolean contains(BigInteger key) {
+		return t1.containsKey(key) || t2.containsKey(key);
+	}
+
+	@Override
+	public Set<BigInteger> allKeys() {
+		Set<BigInteger> keys = new HashSet<BigInteger>(t1.keySet());
+		keys.addAll(t2.keySet());
+		return keys;
+	}
+
+	@Override
+	public int getSize() {
+		return t1.size() + t2.size();
+	}
+
+	@Override
+	public long getWeight() {
+		return weight;
+	}
+
+}
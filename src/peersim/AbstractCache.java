@@ -0,0 +1,224 @@
+package peersim;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import peersim.core.CommonState;
+
+/**
+ * Base of the {@link CachePolicy} implementations: delivery of the removed entries to the {@link CachePolicy.RemovalListener}
+ * and invalidation of the entries cached with {@link #set(BigInteger, Object, long)}.<br>
+ * A policy reports every entry it removes with {@link #removed(BigInteger, Object, int)} while it changes its state, and calls
+ * {@link #notifyRemovals()} at the end of each public operation, so the listener gets all the removals of the operation in a
+ * single batch and sees the cache in a consistent state (e.g. it can look the cache up).<br>
+ * A value cached with {@link #set(BigInteger, Object, long)} is held by the policy in an {@link Entry} with its expiry time
+ * and the {@link StoreVersion} of its key. A lookup of an entry past its time, or cached before a store update of its key, is
+ * a miss and removes the entry: the check is made on the entry the policy returns, without another lookup. The entries with a
+ * time to live are also kept in a queue ordered by time, swept when a value is cached with
+ * {@link #set(BigInteger, Object, long)} to reclaim the entries nobody looks up; an outdated entry nobody looks up stays
+ * until the policy evicts it. A deadline left in the queue by an entry cached again or removed in the meantime is skipped by
+ * the sweep.
+ *
+ * @version 1.0
+ */
+public abstract class AbstractCache implements CachePolicy {
+
+	private RemovalListener listener = null;
+
+	// removals of the operation in progress
+	private ArrayList<Removal> pending = null;
+
+	// entries cached with set(key, value, ttl), looked up by member and the sweep
+	private HashMap<BigInteger, Entry> entries = null;
+
+	// the entries with a time to live ordered by expiry time, possibly with stale deadlines
+	private PriorityQueue<Entry> deadlines = null;
+
+	/**
+	 * value cached with {@link AbstractCache#set(BigInteger, Object, long)}, as held by the policy
+	 */
+	static final class Entry implements Comparable<Entry> {
+
+		final BigInteger key;
+
+		final Object value;
+
+		// Long.MAX_VALUE if the entry never expires
+		final long expires;
+
+		// version of the key, and its value when the entry was cached
+		final StoreVersion store;
+
+		final int version;
+
+		Entry(BigInteger key, Object value, long expires) {
+			this.key = key;
+			this.value = value;
+			this.expires = expires;
+			this.store = StoreVersion.of(key);
+			this.version = store.version;
+		}
+
+		// REMOVED_EXPIRED or REMOVED_OUTDATED if the entry can't be served any more, -1 otherwise
+		int invalid(long now) {
+			if (expires <= now)
+				return REMOVED_EXPIRED;
+			return version != store.version ? REMOVED_OUTDATED : -1;
+		}
+
+		@Override
+		public int compareTo(Entry o) {
+			return Long.compare(expires, o.expires);
+		}
+	}
+
+	/**
+	 * look a key up in the structures of the policy (see {@link CachePolicy#get(BigInteger)})
+	 *
+	 * @param key
+	 *            BigInteger
+	 * @return the cached value, null if the key isn't cached
+	 */
+	protected abstract Object read(BigInteger key);
+
+	/**
+	 * membership check in the structures of the policy, not counted as an access
+	 *
+	 * @param key
+	 *            BigInteger
+	 * @return true if the key is cached
+	 */
+	protected abstract boolean contains(BigInteger key);
+
+	/**
+	 * remove an entry from the structures of the policy, without reporting it
+	 *
+	 * @param key
+	 *            BigInteger
+	 * @return the value removed, null if the key wasn't cached
+	 */
+	protected abstract Object unlink(BigInteger key);
+
+	@Override
+	public Object get(BigInteger key) {
+		// still an access for the policy, a miss if the entry is no longer valid
+		Object value = read(key);
+		if (!(value instanceof Entry))
+			return value;
+		Entry e = (Entry) value;
+		int cause = e.invalid(CommonState.getTime());
+		if (cause < 0)
+			return e.value;
+		discard(e, cause);
+		KademliaObserver.cacheStaleHits.add(1);
+		return null;
+	}
+
+	@Override
+	public boolean member(BigInteger key) {
+		Entry e = entries != null ? entries.get(key) : null;
+		if (e != null) {
+			int cause = e.invalid(CommonState.getTime());
+			if (cause >= 0)
+				discard(e, cause);
+		}
+		return contains(key);
+	}
+
+	@Override
+	public Object remove(BigInteger key) {
+		Object value = unlink(key);
+		if (value != null) {
+			removed(key, value, REMOVED_EXPLICIT);
+			notifyRemovals();
+		}
+		return value instanceof Entry ? ((Entry) value).value : value;
+	}
+
+	@Override
+	public boolean set(BigInteger key, Object value, long ttl) {
+		long now = CommonState.getTime();
+		expire(now);
+		Entry e = new Entry(key, value, ttl > 0 ? now + ttl : Long.MAX_VALUE);
+		if (!set(key, e))
+			return false;
+		if (entries == null) {
+			entries = new HashMap<BigInteger, Entry>();
+			deadlines = new PriorityQueue<Entry>();
+		}
+		entries.put(key, e);
+		if (ttl > 0)
+			deadlines.add(e);
+		return true;
+	}
+
+	@Override
+	public int expire(long now) {
+		if (deadlines == null)
+			return 0;
+		int n = 0;
+		while (!deadlines.isEmpty() && deadlines.peek().expires <= now) {
+			Entry e = deadlines.poll();
+			if (entries.get(e.key) != e)
+				continue; // cached again or removed since
+			Object value = unlink(e.key);
+			if (value != null) {
+				removed(e.key, value, REMOVED_EXPIRED);
+				n++;
+			}
+		}
+		notifyRemovals();
+		return n;
+	}
+
+	// remove an entry that can't be served any more
+	private void discard(Entry e, int cause) {
+		Object value = unlink(e.key);
+		if (value != null)
+			removed(e.key, value, cause);
+		notifyRemovals();
+	}
+
+	@Override
+	public void setRemovalListener(RemovalListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * record an entry removed by the operation in progress
+	 *
+	 * @param key
+	 *            BigInteger
+	 * @param value
+	 *            Object
+	 * @param cause
+	 *            one of the REMOVED_ constants of {@link CachePolicy}
+	 */
+	protected void removed(BigInteger key, Object value, int cause) {
+		if (value instanceof Entry) {
+			if (entries != null)
+				entries.remove(key);
+			value = ((Entry) value).value;
+		}
+		if (listener == null)
+			return;
+		if (pending == null)
+			pending = new ArrayList<Removal>(2);
+		pending.add(new Removal(key, value, cause));
+	}
+
+	/**
+	 * deliver the removals of the operation just over
+	 */
+	protected void notifyRemovals() {
+		if (pending == null)
+			return;
+		ArrayList<Removal> batch = pending;
+		pending = null;
+		if (listener != null)
+			listener.removed(batch);
+	}
+
+}
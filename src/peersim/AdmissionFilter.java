@@ -0,0 +1,97 @@
+package peersim;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * TinyLFU admission filter (Einav, Friedman and Manes, "TinyLFU: A Highly Efficient Cache Admission Policy", 2017) in front
+ * of a cache: a new entry that would evict another one is admitted only if its key has been accessed more often than the key
+ * of the victim, so one-off results don't push out the popular ones.<br>
+ * The first access to a key only sets its bits in a doorkeeper Bloom filter; the following ones are counted in a
+ * {@link FrequencySketch}. After a sample of 10 accesses per entry of the cache the sketch is aged and the doorkeeper
+ * cleared. The keys seen once never reach the sketch, which can then be kept small.
+ *
+ * @version 1.0
+ */
+public class AdmissionFilter {
+
+	private static final int HASHES = 3;
+
+	private final FrequencySketch sketch;
+
+	private final long[] doorkeeper;
+
+	private final int mask;
+
+	private final int sampleSize;
+
+	// accesses since the last aging
+	private int accesses = 0;
+
+	/**
+	 * @param capacity
+	 *            number of entries of the cache
+	 */
+	public AdmissionFilter(int capacity) {
+		sketch = new FrequencySketch(capacity);
+		// 8 bits per access of a sample of the sketch (10 per entry of the cache)
+		int bits = Integer.highestOneBit(Math.max(64, 80 * Math.max(1, capacity)) * 2 - 1);
+		doorkeeper = new long[bits >>> 6];
+		mask = bits - 1;
+		sampleSize = 10 * Math.max(1, capacity);
+	}
+
+	/**
+	 * count an access to a key
+	 *
+	 * @param key
+	 *            BigInteger
+	 */
+	public void record(BigInteger key) {
+		if (seen(key, true)) // not the first access
+			sketch.increment(key);
+		if (++accesses >= sampleSize) {
+			sketch.age();
+			Arrays.fill(doorkeeper, 0);
+			accesses = 0;
+		}
+	}
+
+	/**
+	 * @param key
+	 *            BigInteger
+	 * @return the estimated number of recent accesses to the key
+	 */
+	public int frequency(BigInteger key) {
+		return seen(key, false) ? sketch.frequency(key) + 1 : 0;
+	}
+
+	/**
+	 * @param candidate
+	 *            key to be cached
+	 * @param victim
+	 *            key the cache would evict for it
+	 * @return true if the candidate is worth the victim
+	 */
+	public boolean admit(BigInteger candidate, BigInteger victim) {
+		return frequency(candidate) > frequency(victim);
+	}
+
+	// true if the key is in the doorkeeper, adding it if asked
+	private boolean seen(BigInteger key, boolean add) {
+		int h = key.hashCode();
+		boolean all = true;
+		for (int i = 0; i < HASHES; i++) {
+			h = h * 0x9E3779B1 + i;
+			int bit = (h ^ (h >>> 15)) & mask;
+			long word = 1L << bit;
+			if ((doorkeeper[bit >>> 6] & word) == 0) {
+				all = false;
+				if (add)
+					doorkeeper[bit >>> 6] |= word;
+			}
+		}
+		return all;
+	}
+
+}
@@ -0,0 +1,216 @@
+package peersim;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Replacement policy of the result cache of a node (the search results cached by the nodes closest to a query, see
+ * {@link KademliaProtocol#storeResultInCache(BigInteger, Set)}).<br>
+ * The policy is chosen with the CACHE_POLICY parameter of the protocol: LRU ({@link LRUCache}, the default), LFU
+ * ({@link LFUCache}), ARC ({@link ARCCache}) or WTINYLFU ({@link WTinyLFUCache}). All of them hold at most the number of
+ * entries given by the CACHE parameter and, if CACHE_BYTES is set, values weighing at most CACHE_BYTES bytes (see
+ * {@link #weigh(Object)}): an entry too heavy for the byte budget evicts as many entries as needed.<br>
+ * Every entry removed from the cache is reported, with the cause of its removal, to the {@link RemovalListener} of the
+ * cache: the removals of an operation are delivered together once the operation is over (see {@link AbstractCache}).<br>
+ * An entry may also be cached with a time to live (CACHE_TTL), after which it expires; such an entry is outdated, and no
+ * longer served, once a node stores a new value under its key ({@link StoreVersion}). With CACHE_OFFHEAP, any policy keeps
+ * its posting lists off the heap behind an {@link OffHeapCache}.
+ *
+ * @version 1.0
+ */
+public interface CachePolicy {
+
+	/**
+	 * names of the policies, as given to the CACHE_POLICY parameter
+	 */
+	String LRU = "LRU";
+	String LFU = "LFU";
+	String ARC = "ARC";
+	String WTINYLFU = "WTINYLFU";
+
+	/**
+	 * weight of a document id of a cached posting list, as in the size of a {@link StoreFile}
+	 */
+	int BYTES_PER_ID = 4;
+
+	/**
+	 * causes of the removal of an entry
+	 */
+	int REMOVED_CAPACITY = 0; // evicted to make room, for the number of entries or the byte budget
+	int REMOVED_EXPIRED = 1; // its time to live is over
+	int REMOVED_EXPLICIT = 2; // removed with remove(key)
+	int REMOVED_OUTDATED = 3; // a new value has been stored under its key since it was cached
+
+	/**
+	 * an entry removed from a cache
+	 */
+	final class Removal {
+
+		public final BigInteger key;
+
+		public final Object value;
+
+		/**
+		 * one of the REMOVED_ constants
+		 */
+		public final int cause;
+
+		public Removal(BigInteger key, Object value, int cause) {
+			this.key = key;
+			this.value = value;
+			this.cause = cause;
+		}
+
+		@Override
+		public String toString() {
+			return "Removal [key=" + key + ", cause=" + cause + "]";
+		}
+	}
+
+	/**
+	 * listener of the entries removed from a cache
+	 */
+	interface RemovalListener {
+
+		/**
+		 * entries removed by an operation of the cache, delivered when the operation is over
+		 *
+		 * @param removals
+		 *            the entries, in the order they have been removed
+		 */
+		void removed(List<Removal> removals);
+	}
+
+	/**
+	 * look a key up; a lookup is an access to the key for the policy, whether it hits or misses. An entry past its time to live
+	 * or outdated is a miss, and is removed (cause {@link #REMOVED_EXPIRED} or {@link #REMOVED_OUTDATED})<br>
+	 * The value is only valid until the next operation that changes the cache (set, remove, or a lookup that expires an
+	 * entry): an {@link OffHeapCache} returns a view of its arena, freed once the entry leaves the cache. A caller keeping the
+	 * value longer must copy it (see {@link PostingList#copy()}).
+	 *
+	 * @param key
+	 *            BigInteger
+	 * @return the cached value, null if the key isn't cached
+	 */
+	Object get(BigInteger key);
+
+	/**
+	 * cache a value, evicting an entry if the cache is full
+	 *
+	 * @param key
+	 *            BigInteger
+	 * @param value
+	 *            Object
+	 * @return true if the value is cached, false if the cache didn't admit it (or evicted it right away)
+	 */
+	boolean set(BigInteger key, Object value);
+
+	/**
+	 * cache a value for a while: once its time to live is over, the entry is no longer served and is removed (cause
+	 * {@link #REMOVED_EXPIRED}) by the next lookup of the key or the next sweep of the expired entries, which this call runs
+	 * first. Once a new value is stored under the key ({@link StoreVersion#update(BigInteger)}), the entry is outdated and is
+	 * removed by the next lookup of the key (cause {@link #REMOVED_OUTDATED})
+	 *
+	 * @param key
+	 *            BigInteger
+	 * @param value
+	 *            Object
+	 * @param ttl
+	 *            time to live, in simulated time units; 0 for an entry that never expires
+	 * @return true if the value is cached, false if the cache didn't admit it (or evicted it right away)
+	 */
+	boolean set(BigInteger key, Object value, long ttl);
+
+	/**
+	 * sweep the entries whose time to live is over
+	 *
+	 * @param now
+	 *            current time
+	 * @return the number of entries removed
+	 */
+	int expire(long now);
+
+	/**
+	 * membership check, not counted as an access; an entry past its time to live or outdated is removed as by
+	 * {@link #get(BigInteger)}
+	 *
+	 * @param key
+	 *            BigInteger
+	 * @return true if the key is cached
+	 */
+	boolean member(BigInteger key);
+
+	/**
+	 * remove an entry (cause {@link #REMOVED_EXPLICIT})
+	 *
+	 * @param key
+	 *            BigInteger
+	 * @return the value removed, null if the key wasn't cached
+	 */
+	Object remove(BigInteger key);
+
+	/**
+	 * @param listener
+	 *            listener of the entries removed from now on, null for none
+	 */
+	void setRemovalListener(RemovalListener listener);
+
+	/**
+	 * @return the keys cached
+	 */
+	Set<BigInteger> allKeys();
+
+	/**
+	 * @return the number of entries cached
+	 */
+	int getSize();
+
+	/**
+	 * @return the weight of the values cached, in bytes (see {@link #weigh(Object)})
+	 */
+	long getWeight();
+
+	/**
+	 * estimated size of a cached value: {@link #BYTES_PER_ID} bytes per document id of a posting list
+	 *
+	 * @param value
+	 *            cached value, null if none
+	 * @return bytes
+	 */
+	static long weigh(Object value) {
+		if (value instanceof AbstractCache.Entry)
+			value = ((AbstractCache.Entry) value).value;
+		return value instanceof Collection ? (long) BYTES_PER_ID * ((Collection<?>) value).size() : 0;
+	}
+
+	/**
+	 * create the cache of a node
+	 *
+	 * @param policy
+	 *            name of the policy (LRU, LFU, ARC or WTINYLFU)
+	 * @param capacity
+	 *            maximum number of entries
+	 * @param maxBytes
+	 *            maximum weight of the values, 0 for no limit
+	 * @param admit
+	 *            put an {@link AdmissionFilter} in front of an LRU cache (the other policies decide on their own)
+	 * @return the cache, null if the policy is unknown
+	 */
+	static CachePolicy create(String policy, int capacity, long maxBytes, boolean admit) {
+		switch (policy.toUpperCase()) {
+		case LRU:
+			return new LRUCache(capacity, maxBytes, admit);
+		case LFU:
+			return new LFUCache(capacity, maxBytes);
+		case ARC:
+			return new ARCCache(capacity, maxBytes);
+		case WTINYLFU:
+			return new WTinyLFUCache(capacity, maxBytes);
+		default:
+			return null;
+		}
+	}
+
+}
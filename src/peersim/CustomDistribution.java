@@ -1,7 +1,5 @@
 package peersim;
 
-import java.math.BigInteger;
-
 import peersim.config.Configuration;
 import peersim.core.CommonState;
 import peersim.core.Network;
@@ -32,10 +30,14 @@ public class CustomDistribution implements peersim.core.Control {
 	 * @return boolean always false
 	 */
 	public boolean execute() {
-		BigInteger tmp;
+		NodeId tmp;
+		NodeDirectory.clear();
 		for (int i = 0; i < Network.size(); ++i) {
 			tmp = urg.generate();
-			((KademliaProtocol) (Network.get(i).getProtocol(protocolID))).setNodeId(tmp);
+			KademliaProtocol kad = (KademliaProtocol) (Network.get(i).getProtocol(protocolID));
+			kad.setNodeId(tmp);
+			// the handle of a node is its position in the node table of the directory
+			kad.setHandle(NodeDirectory.register(tmp, Network.get(i)));
 //			System.out.println(Network.get(i).getProtocol(protocolID).toString());
 		}
 		return false;
@@ -2,12 +2,12 @@ package peersim;
 
 import java.math.BigInteger;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.TreeMap;
 
 /**
  * This class represents a find operation and offer the methods needed to maintain and update the closest set.<br>
- * It also maintains the number of parallel requsts that can has a maximum of ALPHA.
+ * It also maintains the number of parallel requsts that can has a maximum of {@link #alpha} (ALPHA, unless the parallelism is
+ * adapted to the observed round trip times).
  * 
  * @author Daniele Furlan, Maurizio Bonani, Nawras Nazar
  * @version 1.0
@@ -46,7 +46,7 @@ public class FindOperation {
 	/**
 	 * Id of the node to find
 	 */
-	public BigInteger destNode;
+	public NodeId destNode;
 
 	/**
 	 * Body of the original find message
@@ -54,9 +54,19 @@ public class FindOperation {
 	public Object body;
 
 	/**
-	 * number of available find request message to send (it must be always less than ALPHA)
+	 * number of available find request message to send (it must be always less than alpha)
 	 */
 	public int available_requests;
+
+	/**
+	 * maximum number of parallel find requests of this operation (ALPHA by default)
+	 */
+	public int alpha;
+
+	/**
+	 * highest value reached by {@link #alpha}
+	 */
+	protected int peakAlpha;
 	
 	/**
 	 * number of outstanding messages sent to get the result of a query from the nodes in the {@link #closestSet}
@@ -64,6 +74,16 @@ public class FindOperation {
 	 *  
 	 */
 	public int outstanding_find_requests;
+	/**
+	 * time after which the operation is removed from the table of the issued operations if it hasn't finished yet
+	 */
+	public long deadline;
+
+	/**
+	 * timer expiring a find value query at its {@link #deadline}, cancelled when the operation leaves the table earlier
+	 */
+	public Timeout deadlineTimer;
+
 	/**
 	 * Start timestamp of the search operation
 	 */
@@ -75,10 +95,45 @@ public class FindOperation {
 	protected int nrHops = 0;
 
 	/**
-	 * This map contains the K closest nodes and corresponding boolean value that indicates if the nodes has been already queried
-	 * or not
+	 * Number of MSG_ROUTE requests sent by the lookup
+	 */
+	protected int routeMessages = 0;
+
+	/**
+	 * Number of hedged MSG_ROUTE requests sent by the lookup (the node queried in place of a slow one)
+	 */
+	protected int hedges = 0;
+
+	/**
+	 * true once the lookup is over (the closest nodes are known)
+	 */
+	protected boolean lookupDone = false;
+
+	/**
+	 * position in the {@link #closestSet} of the next node to ask for the value
+	 */
+	protected int valueCursor = 0;
+
+	/**
+	 * ids of the MSG_FINDVALUE requests sent, the first {@link #valueRequests} of them
+	 */
+	protected long[] valueRequestIds = new long[0];
+	protected int valueRequests = 0;
+
+	/**
+	 * number of MSG_FINDVALUE requests sent again after a timeout
 	 */
-	protected HashMap<BigInteger, Boolean> closestSet;
+	protected int valueRetries = 0;
+
+	/**
+	 * trace of the operation, null if it isn't traced (see {@link QueryTracer})
+	 */
+	protected QuerySpan span = null;
+
+	/**
+	 * This list contains the K closest nodes, sorted by distance, and for each of them if it has been already queried or not
+	 */
+	protected Shortlist closestSet;
 
 	//test
 	protected TreeMap<BigInteger,Integer> nodeSpace = new TreeMap<>();
@@ -90,7 +145,7 @@ public class FindOperation {
 	 * @param destNode
 	 *            Id of the node to find
 	 */
-	public FindOperation(BigInteger destNode, long timestamp) {
+	public FindOperation(NodeId destNode, long timestamp) {
 		this.destNode = destNode;
 		this.timestamp = timestamp;
 
@@ -98,13 +153,14 @@ public class FindOperation {
 		operationId = OPERATION_ID_GENERATOR++;
 
 		// set availabe request to ALPHA
-		available_requests = KademliaCommonConfig.ALPHA;
+		alpha = peakAlpha = KademliaCommonConfig.ALPHA;
+		available_requests = alpha;
 		
 		// set outstanding messages to 0 (no outstanding messages yet)
 		outstanding_find_requests = 0;
 		
 		// initialize closestSet
-		closestSet = new HashMap<BigInteger, Boolean>();
+		closestSet = new Shortlist(destNode, KademliaCommonConfig.K);
 		
 		// query operations are single keyword by default. no parent
 		parent = null;
@@ -114,50 +170,55 @@ public class FindOperation {
 	 * update closestSet with the new information received
 	 * 
 	 * @param neighbours 	用节点的k个neighbours更新节点该次fop的closeSet
+	 * @return number of nodes that entered the closest set
 	 */
-	public void elaborateResponse(BigInteger[] neighbours) {
+	public int elaborateResponse(NodeId[] neighbours) {
 		// update responseNumber
 		available_requests++;
 
-		// add to closestSet
-		for (BigInteger n : neighbours) {
-
-			if (n != null) {
-				if (!closestSet.containsKey(n)) {
-					if (closestSet.size() < KademliaCommonConfig.K) { // add directly
-						closestSet.put(n, false);
-					} else { // find in the closest set if there are nodes with less distance
-						BigInteger newdist = Util.distance(n, destNode);
-
-						// find the node with max distance
-						BigInteger maxdist = newdist;
-						BigInteger nodemaxdist = n;
-						for (BigInteger i : closestSet.keySet()) {
-							BigInteger dist = Util.distance(i, destNode);
-
-							if (dist.compareTo(maxdist) > 0) {
-								maxdist = dist;
-								nodemaxdist = i;
-							}
-						}
-						//将最长距离节点移除，并将新的neighbor加入closeSet
-						//Remove the longest distance node and add the new neighbor to the closeSet
-						if (nodemaxdist.compareTo(n) != 0) {
-							closestSet.remove(nodemaxdist);
-							closestSet.put(n, false);
-							//System.out.println("new neighbor added");
-						}
-					}
-				}
+		// add to closestSet: a node farther than all of a full closestSet is ignored, otherwise it takes the place of the
+		// farthest one
+		int added = 0;
+		for (NodeId n : neighbours) {
+			if (n != null && closestSet.add(n, -1)) {
+				added++;
 			}
 		}
+		return added;
+	}
 
-		/*String s = "closestSet to " + destNode + "\n";
-		for (BigInteger clos : closestSet.keySet()) {
-			 s+= clos + "-";
+	/**
+	 * update closestSet with the compact list of handles received in a {@link Message#MSG_RESPONSE}
+	 *
+	 * @param handles
+	 *            handles of the neighbours in the {@link NodeDirectory} (-1 for an empty slot)
+	 * @return number of nodes that entered the closest set
+	 */
+	public int elaborateResponse(int[] handles) {
+		// update responseNumber
+		available_requests++;
+
+		int added = 0;
+		for (int h : handles) {
+			if (h >= 0 && closestSet.add(NodeDirectory.id(h), h)) {
+				added++;
+			}
 		}
-		System.out.println(s);*/
+		return added;
+	}
 
+	/**
+	 * change the number of parallel requests, keeping the requests already in flight
+	 *
+	 * @param newAlpha
+	 *            int, clamped to [ALPHA_MIN, ALPHA_MAX]
+	 */
+	public void setAlpha(int newAlpha) {
+		newAlpha = Math.max(KademliaCommonConfig.ALPHA_MIN, Math.min(newAlpha, KademliaCommonConfig.ALPHA_MAX));
+		available_requests += newAlpha - alpha;
+		alpha = newAlpha;
+		if (alpha > peakAlpha)
+			peakAlpha = alpha;
 	}
 
 	/**
@@ -165,27 +226,39 @@ public class FindOperation {
 	 * 拿closeSet里面最近那个节点
 	 * @return the Id of the node or null if there aren't available node
 	 */
-	public BigInteger getNeighbour() {
+	public NodeId getNeighbour() {
 		// find closest neighbour ( the first not already queried)
-		BigInteger res = null;
-		for (BigInteger n : closestSet.keySet()) {
-			if (n != null && closestSet.get(n) == false) {
-				if (res == null) {
-					res = n;
-				} else if (Util.distance(n, destNode).compareTo(Util.distance(res, destNode)) < 0) {
-					res = n;
-				}
-			}
-		}
+		int i = closestSet.nextUnqueried();
 
 		// Has been found a valid neighbour
-		if (res != null) {
-			closestSet.remove(res);
-			closestSet.put(res, true);
+		if (i >= 0) {
+			closestSet.setQueried(i);
 			available_requests--; // decrease available request
+			return closestSet.get(i);
 		}
 
-		return res;
+		return null;
+	}
+
+	/**
+	 * record a MSG_FINDVALUE request sent
+	 *
+	 * @param msgId
+	 *            id of the request
+	 */
+	public void valueRequested(long msgId) {
+		if (valueRequests == valueRequestIds.length)
+			valueRequestIds = Arrays.copyOf(valueRequestIds, Math.max(4, valueRequests * 2));
+		valueRequestIds[valueRequests++] = msgId;
+	}
+
+	/**
+	 * @param node
+	 *            NodeId in the closest set
+	 * @return the handle of the node in the {@link NodeDirectory}, -1 if unknown
+	 */
+	public int handleOf(NodeId node) {
+		return closestSet.handleOf(node);
 	}
 
 	@Override
@@ -196,6 +269,7 @@ public class FindOperation {
 				"destNode=" + destNode + ",\n" +
 				"body=" + body + ",\n" +
 				"available_requests=" + available_requests + ",\n" +
+				"alpha=" + alpha + ",\n" +
 				"timestamp=" + timestamp + ",\n" +
 				"nrHops=" + nrHops + ",\n" +
 				"closestSet=" + closestSet + ",\n" +
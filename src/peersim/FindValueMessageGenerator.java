@@ -150,12 +150,12 @@ public static int i=0;
 		 * after that in the KademliaProtocol.find() I create different messages for each of the values in the m.body then make the
 		 * new messages' destination to be that value. So whatever I give here to the m.dest it won't affect the followup processes
 		 */
-		m.dest = multi_key_q_hash;
+		m.dest = NodeId.valueOf(multi_key_q_hash);
 		// System.out.println(key);
 		// System.exit(1);
 		//m.body = key;
 		m.body = new BigInteger[] {key};
-		m.dest = key;
+		m.dest = NodeId.valueOf(key);
 		// does the query issued before.
 		if(KademliaObserver.overallIssuedQueries.containsKey(multi_key_q_hash)) {
 			KademliaObserver.overallIssuedQueries.put(multi_key_q_hash, KademliaObserver.overallIssuedQueries.get(multi_key_q_hash)+1);
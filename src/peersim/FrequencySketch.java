@@ -0,0 +1,95 @@
+package peersim;
+
+import java.math.BigInteger;
+
+/**
+ * Count-min sketch of the access frequency of the cached keys, as used by TinyLFU (Einav, Friedman and Manes, "TinyLFU: A
+ * Highly Efficient Cache Admission Policy", 2017).<br>
+ * Every key has a 4 bit counter in each of {@link #DEPTH} rows, and its frequency is the smallest of them. The counters
+ * are halved after a sample of 10 accesses per entry of the cache, so the frequencies follow a workload whose popular keys
+ * change.
+ *
+ * @version 1.0
+ */
+public class FrequencySketch {
+
+	/**
+	 * number of rows of counters
+	 */
+	public static final int DEPTH = 4;
+
+	private static final int MAX_COUNT = 15;
+
+	private static final int[] SEEDS = { 0x97CB3127, 0xB492B66F, 0x9AE16A3B, 0xCBF29CE5 };
+
+	private final byte[][] counters;
+
+	private final int mask;
+
+	private final int sampleSize;
+
+	private int additions = 0;
+
+	/**
+	 * @param capacity
+	 *            number of entries of the cache
+	 */
+	public FrequencySketch(int capacity) {
+		int width = Integer.highestOneBit(Math.max(16, capacity) * 2 - 1);
+		counters = new byte[DEPTH][width];
+		mask = width - 1;
+		sampleSize = 10 * Math.max(1, capacity);
+	}
+
+	/**
+	 * count an access to a key
+	 *
+	 * @param key
+	 *            BigInteger
+	 */
+	public void increment(BigInteger key) {
+		int h = key.hashCode();
+		boolean added = false;
+		for (int i = 0; i < DEPTH; i++) {
+			int j = index(h, i);
+			if (counters[i][j] < MAX_COUNT) {
+				counters[i][j]++;
+				added = true;
+			}
+		}
+		if (added && ++additions >= sampleSize)
+			age();
+	}
+
+	/**
+	 * @param key
+	 *            BigInteger
+	 * @return the estimated number of recent accesses to the key, at most 15
+	 */
+	public int frequency(BigInteger key) {
+		int h = key.hashCode();
+		int f = MAX_COUNT;
+		for (int i = 0; i < DEPTH; i++) {
+			f = Math.min(f, counters[i][index(h, i)]);
+		}
+		return f;
+	}
+
+	/**
+	 * halve all the counters
+	 */
+	public void age() {
+		for (byte[] row : counters) {
+			for (int j = 0; j < row.length; j++) {
+				row[j] >>= 1;
+			}
+		}
+		additions /= 2;
+	}
+
+	private int index(int h, int row) {
+		h *= SEEDS[row];
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+}
@@ -0,0 +1,174 @@
+package peersim;
+
+import java.util.Arrays;
+
+/**
+ * Table of the requests sent by a node and still waiting for a response, keyed by message id.<br>
+ * It is an open-addressing hash table (linear probing, backward shift deletion) over a primitive long[] of keys, so a request
+ * is added and removed in constant time without boxing the id. The value is the {@link Timeout} of the request, so that it can
+ * be cancelled when the response arrives.
+ *
+ * @version 1.0
+ */
+public class InFlightTable {
+
+	private static final int MIN_CAPACITY = 16;
+
+	// message ids, meaningful only where the value is not null
+	private long[] keys;
+
+	private Timeout[] values;
+
+	private int mask;
+
+	// number of requests in flight
+	private int size = 0;
+
+	// highest number of requests in flight at the same time
+	private int peak = 0;
+
+	public InFlightTable() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            initial capacity, rounded up to a power of two
+	 */
+	public InFlightTable(int capacity) {
+		int n = Integer.highestOneBit(Math.max(capacity, MIN_CAPACITY) - 1) << 1;
+		keys = new long[n];
+		values = new Timeout[n];
+		mask = n - 1;
+	}
+
+	/**
+	 * add a request (or replace the timeout of a request already in flight)
+	 *
+	 * @param msgId
+	 *            id of the request
+	 * @param t
+	 *            Timeout of the request, not null
+	 */
+	public void put(long msgId, Timeout t) {
+		int i = find(msgId);
+		if (values[i] == null) {
+			keys[i] = msgId;
+			size++;
+			if (size > peak)
+				peak = size;
+		}
+		values[i] = t;
+		if (size * 4 > keys.length * 3) // keep the load under 3/4
+			resize(keys.length * 2);
+	}
+
+	/**
+	 * @param msgId
+	 *            id of the request
+	 * @return true if the request is still waiting for its response
+	 */
+	public boolean containsKey(long msgId) {
+		return values[find(msgId)] != null;
+	}
+
+	/**
+	 * @param msgId
+	 *            id of the request
+	 * @return the timeout of the request, null if it isn't in flight
+	 */
+	public Timeout get(long msgId) {
+		return values[find(msgId)];
+	}
+
+	/**
+	 * remove a request
+	 *
+	 * @param msgId
+	 *            id of the request
+	 * @return the timeout of the request, null if it wasn't in flight
+	 */
+	public Timeout remove(long msgId) {
+		int i = find(msgId);
+		Timeout t = values[i];
+		if (t == null)
+			return null;
+
+		values[i] = null;
+		size--;
+
+		// shift back the following entries of the cluster that would not be found anymore
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (values[j] == null)
+				break;
+			int home = slot(keys[j]);
+			// move the entry unless its home slot lies cyclically in (i, j]
+			if (i <= j ? (i < home && home <= j) : (i < home || home <= j))
+				continue;
+			keys[i] = keys[j];
+			values[i] = values[j];
+			values[j] = null;
+			i = j;
+		}
+		return t;
+	}
+
+	/**
+	 * @return number of requests in flight
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return highest number of requests in flight at the same time
+	 */
+	public int peak() {
+		return peak;
+	}
+
+	// slot of the key, or the empty slot where it would be added
+	private int find(long msgId) {
+		int i = slot(msgId);
+		while (values[i] != null && keys[i] != msgId) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private int slot(long msgId) {
+		// message ids are sequential: spread them before masking
+		long h = msgId * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & mask;
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Timeout[] oldValues = values;
+		keys = new long[capacity];
+		values = new Timeout[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int j = find(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		long[] ids = new long[size];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != null)
+				ids[n++] = keys[i];
+		}
+		Arrays.sort(ids);
+		return Arrays.toString(ids);
+	}
+
+}
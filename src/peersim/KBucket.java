@@ -1,56 +1,150 @@
 package peersim;
 
-import java.math.BigInteger;
-import java.util.TreeMap;
+import java.util.Arrays;
 
 import peersim.core.CommonState;
 
 /**
- * This class implements a kademlia k-bucket. Function for the management of the neighbours update are also implemented
- * 
+ * This class implements a kademlia k-bucket. Function for the management of the neighbours update are also implemented<br>
+ * The neighbours are kept in K slots (two parallel arrays holding the ids and their last seen time), so a bucket costs a
+ * couple of small arrays instead of a tree of boxed entries.<br>
+ * As in the kademlia paper the slots are sorted by last seen time: the least-recently seen neighbour is at the head and a
+ * neighbour seen again is moved to the tail. When the bucket is full, new contacts are kept in a bounded replacement cache
+ * and replace the neighbours that are found dead (see {@link #removeNeighbour(NodeId)}).
+ *
  * @author Daniele Furlan, Maurizio Bonani
  * @version 1.0
  */
 public class KBucket implements Cloneable {
 
-	// k-bucket array
-	protected TreeMap<BigInteger, Long> neighbours = null;
+	// k-bucket slots: the first 'size' positions are in use
+	protected NodeId[] neighbours;
+
+	// time the neighbour in the same slot has been added or seen
+	protected long[] lastSeen;
+
+	// number of neighbours in the k-bucket
+	protected int size = 0;
+
+	// replacement cache, from the oldest to the most recently seen contact. Allocated when the bucket overflows for the first time
+	protected NodeId[] replacements = null;
+
+	// number of contacts in the replacement cache
+	protected int replacementSize = 0;
 
 	// empty costructor
 	public KBucket() {
-		neighbours = new TreeMap<BigInteger, Long>();
+		neighbours = new NodeId[KademliaCommonConfig.K];
+		lastSeen = new long[KademliaCommonConfig.K];
 	}
 
-	// add a neighbour to this k-bucket
-	public void addNeighbour(BigInteger node) {
+	// add a neighbour to this k-bucket (or refresh it if already known)
+	public void addNeighbour(NodeId node) {
 		long time = CommonState.getTime();
-		if (neighbours.size() < KademliaCommonConfig.K) { // k-bucket isn't full
-			neighbours.put(node, time); // add neighbour to the tail of the list
-		}
-		/*else {
+		int i = indexOf(node);
+		if (i >= 0) { // already known: move it to the tail of the list
+			removeSlot(i);
+			appendSlot(node, time);
+		} else if (size < KademliaCommonConfig.K) { // k-bucket isn't full
+			appendSlot(node, time); // add neighbour to the tail of the list
+		} else {
 			//System.out.println("the received closest node to a hash couldn't be added to neighbors list: " + node);
-			KademliaObserver.closeNodeNotAdded.add(1);
-		}*/
+			// keep it as a candidate for the first neighbour that will be found dead
+			addReplacement(node);
+		}
+	}
+
+	/**
+	 * remove a neighbour from this k-bucket (e.g. because it didn't answer in time). The most recently seen contact of the
+	 * replacement cache takes its place.
+	 */
+	public void removeNeighbour(NodeId node) {
+		int i = indexOf(node);
+		if (i >= 0) {
+			removeSlot(i);
+			if (replacementSize > 0) {
+				NodeId replacement = replacements[--replacementSize];
+				replacements[replacementSize] = null;
+				appendSlot(replacement, CommonState.getTime());
+			}
+		} else {
+			removeReplacement(node);
+		}
 	}
 
-	// remove a neighbour from this k-bucket
-	public void removeNeighbour(BigInteger node) {
-		neighbours.remove(node);
+	// add a contact to the replacement cache, dropping the oldest one when the cache is full
+	private void addReplacement(NodeId node) {
+		if (KademliaCommonConfig.REPLACEMENT_CACHE <= 0)
+			return;
+		removeReplacement(node);
+		if (replacements == null) {
+			replacements = new NodeId[KademliaCommonConfig.REPLACEMENT_CACHE];
+		}
+		if (replacementSize == replacements.length) {
+			System.arraycopy(replacements, 1, replacements, 0, replacementSize - 1);
+			replacementSize--;
+		}
+		replacements[replacementSize++] = node;
+	}
+
+	private void removeReplacement(NodeId node) {
+		for (int i = 0; i < replacementSize; i++) {
+			if (replacements[i].equals(node)) {
+				System.arraycopy(replacements, i + 1, replacements, i, replacementSize - i - 1);
+				replacements[--replacementSize] = null;
+				return;
+			}
+		}
+	}
+
+	private void appendSlot(NodeId node, long time) {
+		if (size == neighbours.length) { // K has been raised after the creation of the bucket
+			neighbours = Arrays.copyOf(neighbours, KademliaCommonConfig.K);
+			lastSeen = Arrays.copyOf(lastSeen, KademliaCommonConfig.K);
+		}
+		neighbours[size] = node;
+		lastSeen[size] = time;
+		size++;
+	}
+
+	private void removeSlot(int i) {
+		// shift the following slots to keep the last seen order
+		System.arraycopy(neighbours, i + 1, neighbours, i, size - i - 1);
+		System.arraycopy(lastSeen, i + 1, lastSeen, i, size - i - 1);
+		neighbours[--size] = null;
+	}
+
+	// position of the neighbour in the slots, -1 if not present
+	public int indexOf(NodeId node) {
+		for (int i = 0; i < size; i++) {
+			if (neighbours[i].equals(node))
+				return i;
+		}
+		return -1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
 	}
 
 	public Object clone() {
 		KBucket dolly = new KBucket();
-		for (BigInteger node : neighbours.keySet()) {
-			dolly.neighbours.put(new BigInteger(node.toByteArray()), 0l);
-		}
+		// ids are immutable, no need to copy them
+		dolly.neighbours = Arrays.copyOf(neighbours, neighbours.length);
+		dolly.lastSeen = new long[lastSeen.length];
+		dolly.size = size;
 		return dolly;
 	}
 
 	public String toString() {
 		String res = "{\n";
 
-		for (BigInteger node : neighbours.keySet()) {
-			res += node + "\n";
+		for (int i = 0; i < size; i++) {
+			res += neighbours[i] + "\n";
 		}
 
 		return res + "}";
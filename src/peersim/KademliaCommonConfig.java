@@ -23,13 +23,175 @@ public class KademliaCommonConfig {
 	 */
 	public static int ALPHA = 3; 
 
+	/**
+	 * adapt the number of simultaneous lookup of every operation to the observed round trip times, between ALPHA_MIN and
+	 * ALPHA_MAX (default is false)
+	 */
+	public static boolean ADAPTIVE_ALPHA = false;
+
+	/**
+	 * bounds of the adaptive number of simultaneous lookup (default are ALPHA and 2*ALPHA)
+	 */
+	public static int ALPHA_MIN = 3;
+	public static int ALPHA_MAX = 6;
+
+	/**
+	 * size of the replacement cache of every k-bucket (default is 5)
+	 */
+	public static int REPLACEMENT_CACHE = 5;
+
+	/**
+	 * number of entries of the result cache of every node (default is 100)
+	 */
+	public static int CACHE = 100;
+
+	/**
+	 * byte budget of the result cache of every node, weighing 4 bytes per document id of a cached posting list like the size
+	 * of a {@link StoreFile}; 0 bounds the cache by the number of entries only (default is 0)
+	 */
+	public static long CACHE_BYTES = 0;
+
+	/**
+	 * put a TinyLFU admission filter in front of an LRU result cache: a result that would evict another one is cached only
+	 * if its key has been looked up more often (default is false, see {@link AdmissionFilter})
+	 */
+	public static boolean CACHE_ADMISSION = false;
+
+	/**
+	 * replacement policy of the result cache of the nodes: LRU, LFU, ARC or WTINYLFU (default is LRU, see
+	 * {@link CachePolicy})
+	 */
+	public static String CACHE_POLICY = CachePolicy.LRU;
+
+	/**
+	 * time to live of a cached result, in simulated time units; 0 keeps the results until they are evicted (default is 0)
+	 */
+	public static long CACHE_TTL = 0;
+
+	/**
+	 * scale the time to live of a cached result by the distance of the caching node from the key, as in the Kademlia paper:
+	 * it is halved for every node between the caching node and the closest node to the key (default is false)
+	 */
+	public static boolean CACHE_TTL_DISTANCE = false;
+
+	/**
+	 * keep the cached posting lists off the heap, int encoded in the slabs of a {@link PostingArena} shared by the caches of
+	 * all the nodes (default is false, see {@link OffHeapCache})
+	 */
+	public static boolean CACHE_OFFHEAP = false;
+
+	/**
+	 * width of a slot of the timer wheel of the request timeouts, in simulated time units (default is 10)
+	 */
+	public static int TIMER_RESOLUTION = 10;
+
+	/**
+	 * time out the requests after the RTO estimated from the round trip times observed towards the k-bucket of the contact
+	 * (Jacobson/Karels), instead of 4 times the latency given by the transport (default is false)
+	 */
+	public static boolean ADAPTIVE_TIMEOUT = false;
+
+	/**
+	 * timeout of a request before any round trip time has been observed, and upper bound of the timeout (defaults are 1000
+	 * and 60000)
+	 */
+	public static int RTO_INITIAL = 1000;
+	public static int RTO_MAX = 60000;
+
+	/**
+	 * time after which a find operation that hasn't finished is dropped, in simulated time units (default is 120000)
+	 */
+	public static int OP_TIMEOUT = 120000;
+
+	/**
+	 * end a lookup as soon as all of the K closest nodes known have answered, as in the kademlia paper, instead of waiting for
+	 * every outstanding request (default is false)
+	 */
+	public static boolean KADEMLIA_TERMINATION = false;
+
+	/**
+	 * when a MSG_ROUTE request isn't answered within the HEDGE_PERCENTILE percentile of the recent round trip times, query
+	 * the next closest node too, at most HEDGE_MAX times per lookup (default is false)
+	 */
+	public static boolean HEDGE = false;
+	public static int HEDGE_PERCENTILE = 95;
+	public static int HEDGE_MAX = 2;
+
+	/**
+	 * number of closest nodes first asked for the value once the lookup of a find value operation is over, one more is asked
+	 * at every miss or timeout; 0 asks all of them at once (default is 0)
+	 */
+	public static int FINDVALUE_FANOUT = 0;
+
+	/**
+	 * requests sent again, to the next closest node not asked yet or else to the same node, when a MSG_FINDVALUE request times
+	 * out, at most FINDVALUE_RETRIES times per query (default is 2)
+	 */
+	public static int FINDVALUE_RETRIES = 2;
+
+	/**
+	 * time after which a find value query that hasn't got its value fails, in simulated time units; 0 uses OP_TIMEOUT
+	 * (default is 0)
+	 */
+	public static int QUERY_DEADLINE = 0;
+
+	/**
+	 * a node on the lookup path of a find value operation that stores the key (or has it in its cache) returns the value
+	 * instead of its closest neighbours (default is false: only the cache is checked)
+	 */
+	public static boolean VALUE_WHILE_ROUTING = false;
+
+	/**
+	 * fraction of the find operations traced, 0 to disable the tracing (default is 0)
+	 */
+	public static double TRACE_SAMPLE = 0;
+
+	/**
+	 * file the traces are written to, one JSON object per line (default is query-trace.ndjson)
+	 */
+	public static String TRACE_FILE = "query-trace.ndjson";
+
 	/**
 	 * short information about current mspastry configuration
 	 * 
 	 * @return String
 	 */
 	public static String info() {
-		return String.format("[K=%d][ALPHA=%d][BITS=%d]", K, ALPHA, BITS);
+		StringBuilder sb = new StringBuilder();
+		param(sb, "K", K);
+		param(sb, "ALPHA", ALPHA);
+		param(sb, "ADAPTIVE_ALPHA", ADAPTIVE_ALPHA);
+		param(sb, "ALPHA_MIN", ALPHA_MIN);
+		param(sb, "ALPHA_MAX", ALPHA_MAX);
+		param(sb, "BITS", BITS);
+		param(sb, "REPLACEMENT_CACHE", REPLACEMENT_CACHE);
+		param(sb, "CACHE", CACHE);
+		param(sb, "CACHE_BYTES", CACHE_BYTES);
+		param(sb, "CACHE_POLICY", CACHE_POLICY);
+		param(sb, "CACHE_ADMISSION", CACHE_ADMISSION);
+		param(sb, "CACHE_TTL", CACHE_TTL);
+		param(sb, "CACHE_TTL_DISTANCE", CACHE_TTL_DISTANCE);
+		param(sb, "CACHE_OFFHEAP", CACHE_OFFHEAP);
+		param(sb, "TIMER_RESOLUTION", TIMER_RESOLUTION);
+		param(sb, "ADAPTIVE_TIMEOUT", ADAPTIVE_TIMEOUT);
+		param(sb, "RTO_INITIAL", RTO_INITIAL);
+		param(sb, "RTO_MAX", RTO_MAX);
+		param(sb, "OP_TIMEOUT", OP_TIMEOUT);
+		param(sb, "KADEMLIA_TERMINATION", KADEMLIA_TERMINATION);
+		param(sb, "HEDGE", HEDGE);
+		param(sb, "HEDGE_PERCENTILE", HEDGE_PERCENTILE);
+		param(sb, "HEDGE_MAX", HEDGE_MAX);
+		param(sb, "FINDVALUE_FANOUT", FINDVALUE_FANOUT);
+		param(sb, "FINDVALUE_RETRIES", FINDVALUE_RETRIES);
+		param(sb, "QUERY_DEADLINE", QUERY_DEADLINE);
+		param(sb, "VALUE_WHILE_ROUTING", VALUE_WHILE_ROUTING);
+		param(sb, "TRACE_SAMPLE", TRACE_SAMPLE);
+		return sb.toString();
+	}
+
+	// append a parameter, formatted as "[<name>=<value>]"
+	private static void param(StringBuilder sb, String name, Object value) {
+		sb.append('[').append(name).append('=').append(value).append(']');
 	}
 
 }
@@ -2,6 +2,7 @@ package peersim;
 
 import java.math.BigInteger;
 import java.util.HashMap;
+import java.util.Set;
 
 import peersim.config.Configuration;
 import peersim.core.CommonState;
@@ -121,6 +122,32 @@ public static int h=0;
 	 * keep statistic of the number of cache miss (i.e. when searched kv couldn't be found in cache)
 	 */
 	public static IncrementalStats cacheMissPerQuery = new IncrementalStats();
+
+	/**
+	 * keep statistic of the results the admission filter of a cache didn't let in
+	 */
+	public static IncrementalStats cacheRejected = new IncrementalStats();
+
+	/**
+	 * keep statistic of the updates of the global index of the cached queries ({@link #staticHashMap})
+	 */
+	public static IncrementalStats cacheIndexUpdates = new IncrementalStats();
+
+	/**
+	 * keep statistic of the cache lookups that found their result past its time to live or outdated by a store update, answered
+	 * as misses
+	 */
+	public static IncrementalStats cacheStaleHits = new IncrementalStats();
+
+	/**
+	 * keep statistic of the cached results removed because their time to live was over
+	 */
+	public static IncrementalStats cacheExpired = new IncrementalStats();
+
+	/**
+	 * keep statistic of the cached results removed because a new value has been stored under their key
+	 */
+	public static IncrementalStats cacheOutdated = new IncrementalStats();
 	
 	/**
 	 * keep statistic of the number of storage hit (i.e. when searched kv is in storage)
@@ -130,7 +157,51 @@ public static int h=0;
 	/**
 	 * keep statistics of the time every query message delivered.
 	 */
-	public static IncrementalStats queryMsgTime = new IncrementalStats();
+	public static LatencyStats queryMsgTime = new LatencyStats();
+
+	/**
+	 * keep statistic of the number of contacts evicted from the k-buckets because they didn't answer in time
+	 */
+	public static IncrementalStats evictedContacts = new IncrementalStats();
+
+	/**
+	 * keep statistic of the request timeouts cancelled because the response arrived in time (they never reach the event queue)
+	 */
+	public static IncrementalStats cancelledTimeouts = new IncrementalStats();
+
+	/**
+	 * keep statistic of the find operations removed from the table of the issued operations: completed (the result arrived),
+	 * abandoned (no result can arrive) and expired (their deadline passed)
+	 */
+	public static IncrementalStats opCompleted = new IncrementalStats();
+	public static IncrementalStats opAbandoned = new IncrementalStats();
+	public static IncrementalStats opExpired = new IncrementalStats();
+
+	/**
+	 * keep statistic of the MSG_ROUTE requests sent by each find operation (printed with the lookup termination in use)
+	 */
+	public static IncrementalStats routeMsgPerFind = new IncrementalStats();
+
+	/**
+	 * keep statistic of the highest number of parallel requests reached by each find operation
+	 */
+	public static IncrementalStats peakAlphaPerFind = new IncrementalStats();
+
+	/**
+	 * keep statistic of the MSG_FINDVALUE requests sent by each find value operation
+	 */
+	public static IncrementalStats valueMsgPerFind = new IncrementalStats();
+
+	/**
+	 * keep statistic of the MSG_FINDVALUE requests sent again after a timeout
+	 */
+	public static IncrementalStats valueRetries = new IncrementalStats();
+
+	/**
+	 * keep statistic of the hedged MSG_ROUTE requests, and of those answered before the request they hedged
+	 */
+	public static IncrementalStats hedgedRequests = new IncrementalStats();
+	public static IncrementalStats hedgeWins = new IncrementalStats();
 	
 	/**
 	 * create a supernode that has nodeId of the entire network peers. <br>
@@ -139,14 +210,50 @@ public static int h=0;
 	 * we may also need it to observe some parameters in future. <br>
 	 * -- in future if we needed to calculate the bandwidth cost or time cost of result cache storage, then we have to use proper DHT steps.
 	 */
-	public static BigInteger supernodeId = new BigInteger(KademliaCommonConfig.BITS, CommonState.r);
+	public static NodeId supernodeId = NodeId.valueOf(new BigInteger(KademliaCommonConfig.BITS, CommonState.r));
 	public static KademliaProtocol supernode = new KademliaProtocol(supernodeId);
 	
 	public static CuckooHashMap<BigInteger, String> staticHashMap = new CuckooHashMap<>();
 	public static  CuckooHashTable<String> staticHashTable = new CuckooHashTable<>( new StringHashFamily( 2 ) );
 	
 	public static HashMap<BigInteger, Integer>overallIssuedQueries = new HashMap<>();
+	/**
+	 * number of nodes whose cache holds each query of the {@link #staticHashMap}
+	 */
 	public static HashMap<BigInteger, Integer>cachedQueries = new HashMap<>();
+
+	/**
+	 * a node has cached the result of a query: index the query if it is the first one
+	 * 
+	 * @param key query
+	 * @param value result
+	 */
+	public static void cacheQuery(BigInteger key, Set<String> value) {
+		Integer n = cachedQueries.get(key);
+		cachedQueries.put(key, n == null ? 1 : n + 1);
+		if (n == null) {
+			staticHashMap.put(key, value.toString());
+			cacheIndexUpdates.add(1);
+		}
+	}
+
+	/**
+	 * a node has removed the result of a query from its cache: drop the query from the index if it was the last one
+	 * 
+	 * @param key query
+	 */
+	public static void uncacheQuery(BigInteger key) {
+		Integer n = cachedQueries.get(key);
+		if (n == null)
+			return;
+		if (n > 1) {
+			cachedQueries.put(key, n - 1);
+		} else {
+			cachedQueries.remove(key);
+			staticHashMap.remove(key);
+			cacheIndexUpdates.add(1);
+		}
+	}
 	public static HashMap<Long, Integer>nodeQueryStat = new HashMap<>();
 	public static IncrementalStats duplicateQuery = new IncrementalStats();
 	
@@ -167,6 +274,17 @@ public static int h=0;
 		pid = Configuration.getPid(prefix + "." + PAR_PROT);
 	}
 
+	// append a field of the snapshot, formatted as " [<format>]"
+	private static void field(StringBuilder sb, String format, Object value) {
+		sb.append(" [").append(String.format(format, value)).append(']');
+	}
+
+	// fraction of the cache lookups that hit
+	private static double ratio(IncrementalStats hits, IncrementalStats misses) {
+		double lookups = hits.getSum() + misses.getSum();
+		return lookups > 0 ? hits.getSum() / lookups : 0;
+	}
+
 	/**
 	 * print the statistical snapshot of the current situation
 	 * 
@@ -175,9 +293,25 @@ public static int h=0;
 	public boolean execute() {
 		// get the real network size
 		int sz = Network.size();
-		for (int i = 0; i < Network.size(); i++)
-			if (!Network.get(i).isUp())
+		// requests in flight per node
+		IncrementalStats inFlight = new IncrementalStats();
+		IncrementalStats peakInFlight = new IncrementalStats();
+		IncrementalStats pendingOps = new IncrementalStats();
+		// weighted occupancy of the result cache per node
+		IncrementalStats cacheBytes = new IncrementalStats();
+		for (int i = 0; i < Network.size(); i++) {
+			if (!Network.get(i).isUp()) {
 				sz--;
+				continue;
+			}
+			KademliaProtocol kad = (KademliaProtocol) Network.get(i).getProtocol(pid);
+			inFlight.add(kad.getInFlightRequests());
+			peakInFlight.add(kad.getPeakInFlightRequests());
+			pendingOps.add(kad.getPendingOperations());
+			cacheBytes.add(kad.getCacheWeight());
+		}
+		// posting lists cached off the heap, if any
+		PostingArena arena = KademliaProtocol.getCacheArena();
 
 		/*String s = String.format("[time=%d]:[N=%d current nodes UP] [D=%f msg deliv] [%f min h] [%f average h] [%f max h] [%d min l] [%d msec average l] [%d max l] [%d findop sum] [%d sendstore_resp sum]  [%d storedMsg sum]  [%d sendtostore_msg sum] [%d findValueSuccess sum] [%d findValueTimes][%d realStoreOperation]",
 				CommonState.getTime(), , msg_deliv.getSum(),hopStore.getMin(), hopStore.getAverage(), hopStore.getMax(), (int) timeStore.getMin(), (int) timeStore.getAverage(), (int) timeStore.getMax(),(int)find_op.getSum(),(int)sendstore_resp.getSum(),(int)stored_msg.getSum(),(int)sendtostore_msg.getSum(),(int)findVal_success.getSum(),(int)findVal_times.getSum(),(int)real_store_operation.getSum());
@@ -188,8 +322,43 @@ public static int h=0;
 		/*String s = String.format("[time=%d]:[N=%d current nodes UP] [%d average no. of msgs per search] [%d closeNodeValExpected sum]  [%d closeNodeHadVal sum]  [%d overloadNode sum] [%d findValueTimes sum] [%d findValueSuccess] [%d realStoreOperation] [%d realStoreFailOperation] [%d cachHit sum] [%d storageHit sum]",
 				CommonState.getTime()/(1000*60*60), sz,(int)hopFindValue.getAverage(),(int)closeNodeValExpected.getSum(),(int)closeNodeHadVal.getSum(),(int)overloadNode.getSum(),(int)findVal_times.getSum(),(int)findVal_success.getSum(),(int)real_store_operation.getSum(), (int)real_store_fail_operation.getSum(), (int)cacheHit.getSum(), (int)storageHit.getSum());
 		*/
-		String s = String.format("[%d time]:[%d no data found] [%d duplicateQuery] [%d no. of msgs per search max] [%d no. of msgs per search avg] [%d no. of msgs per search min] [%d cacheHitPerMsg sum] [%d cacheHitPerQuery sum] [%d queryMsgTime avg] [%d findValueTimes sum] [%d findValueSuccess] [%d findValueFail]",
-				CommonState.getTime(), (int)closeNodeNoVal.getSum(), (int)duplicateQuery.getSum(), (int)hopFindValue.getMax(), (int)hopFindValue.getAverage(), (int)hopFindValue.getMin(), (int)cacheHitPerMsg.getSum(), (int)cacheHitPerQuery.getSum(), (int)queryMsgTime.getAverage(),(int)findVal_times.getSum(),(int)findVal_success.getSum(),(int)findVal_fail.getSum());
+		String base = String.format("[%d time]:[%d no data found] [%d duplicateQuery] [%d no. of msgs per search max] [%d no. of msgs per search avg] [%d no. of msgs per search min] [%d cacheHitPerMsg sum] [%d cacheHitPerQuery sum] [%d queryMsgTime avg] [%d findValueTimes sum] [%d findValueSuccess] [%d findValueFail]",
+				CommonState.getTime(), (int)closeNodeNoVal.getSum(), (int)duplicateQuery.getSum(), (int)hopFindValue.getMax(), (int)hopFindValue.getAverage(), (int)hopFindValue.getMin(), (int)cacheHitPerMsg.getSum(), (int)cacheHitPerQuery.getSum(), (int)queryMsgTime.getAverage(), (int)findVal_times.getSum(), (int)findVal_success.getSum(), (int)findVal_fail.getSum());
+		// the statistics added since, one per field
+		StringBuilder sb = new StringBuilder(base);
+		field(sb, "%d evictedContacts sum", (int)evictedContacts.getSum());
+		field(sb, "%d cancelledTimeouts sum", (int)cancelledTimeouts.getSum());
+		field(sb, "%.2f inFlight avg", inFlight.getAverage());
+		field(sb, "%d inFlight max", (int)inFlight.getMax());
+		field(sb, "%d peakInFlight max", (int)peakInFlight.getMax());
+		field(sb, "%d opCompleted sum", (int)opCompleted.getSum());
+		field(sb, "%d opAbandoned sum", (int)opAbandoned.getSum());
+		field(sb, "%d opExpired sum", (int)opExpired.getSum());
+		field(sb, "%d pendingOps max", (int)pendingOps.getMax());
+		field(sb, "%s lookupTermination", KademliaCommonConfig.KADEMLIA_TERMINATION ? "kademlia" : "exhaustive");
+		field(sb, "%.2f routeMsgPerFind avg", routeMsgPerFind.getAverage());
+		field(sb, "%d routeMsgPerFind max", (int)routeMsgPerFind.getMax());
+		field(sb, "%.2f peakAlphaPerFind avg", peakAlphaPerFind.getAverage());
+		field(sb, "%d queryMsgTime max", (int)queryMsgTime.getMax());
+		field(sb, "%.2f valueMsgPerFind avg", valueMsgPerFind.getAverage());
+		field(sb, "%d storageHit sum", (int)storageHit.getSum());
+		field(sb, "%.4f hedgeRate", routeMsgPerFind.getSum() > 0 ? hedgedRequests.getSum() / routeMsgPerFind.getSum() : 0);
+		field(sb, "%d hedgeWins sum", (int)hedgeWins.getSum());
+		field(sb, "%d queryMsgTime p99", queryMsgTime.getPercentile(99));
+		field(sb, "%d valueRetries sum", (int)valueRetries.getSum());
+		field(sb, "%s cachePolicy", KademliaCommonConfig.CACHE_POLICY);
+		field(sb, "%.4f cacheHitPerMsg ratio", ratio(cacheHitPerMsg, cacheMissPerMsg));
+		field(sb, "%.4f cacheHitPerQuery ratio", findVal_times.getSum() > 0 ? cacheHitPerQuery.getSum() / findVal_times.getSum() : 0);
+		field(sb, "%d cacheBytes avg", (long)cacheBytes.getAverage());
+		field(sb, "%d cacheBytes max", (long)cacheBytes.getMax());
+		field(sb, "%d cacheRejected sum", (int)cacheRejected.getSum());
+		field(sb, "%d cacheIndexUpdates sum", (int)cacheIndexUpdates.getSum());
+		field(sb, "%d cacheStaleHits sum", (int)cacheStaleHits.getSum());
+		field(sb, "%d cacheExpired sum", (int)cacheExpired.getSum());
+		field(sb, "%d cacheOutdated sum", (int)cacheOutdated.getSum());
+		field(sb, "%d cacheOffHeapBytes used", arena != null ? arena.getUsedBytes() : 0);
+		field(sb, "%d cacheOffHeapBytes reserved", arena != null ? arena.getReservedBytes() : 0);
+		String s = sb.toString();
 		
 		/* not useful for now
 		if (CommonState.getTime() == 3500000) {
@@ -12,6 +12,7 @@ package peersim;
 import java.math.BigInteger;
 import java.util.*;
 import peersim.config.Configuration;
+import peersim.config.IllegalParameterException;
 import peersim.core.CommonState;
 import peersim.core.Network;
 import peersim.core.Node;
@@ -26,8 +27,44 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 	// VARIABLE PARAMETERS
 	final String PAR_K = "K";
 	final String PAR_ALPHA = "ALPHA";
+	final String PAR_ADAPTIVE_ALPHA = "ADAPTIVE_ALPHA";
+	final String PAR_ALPHA_MIN = "ALPHA_MIN";
+	final String PAR_ALPHA_MAX = "ALPHA_MAX";
 	final String PAR_BITS = "BITS";
 	final String PAR_CACHE = "CACHE";
+	final String PAR_REPLACEMENT_CACHE = "REPLACEMENT_CACHE";
+	final String PAR_CACHE_POLICY = "CACHE_POLICY";
+	final String PAR_CACHE_BYTES = "CACHE_BYTES";
+	final String PAR_CACHE_ADMISSION = "CACHE_ADMISSION";
+	final String PAR_CACHE_TTL = "CACHE_TTL";
+	final String PAR_CACHE_TTL_DISTANCE = "CACHE_TTL_DISTANCE";
+	final String PAR_CACHE_OFFHEAP = "CACHE_OFFHEAP";
+	final String PAR_TIMER_RESOLUTION = "TIMER_RESOLUTION";
+	final String PAR_ADAPTIVE_TIMEOUT = "ADAPTIVE_TIMEOUT";
+	final String PAR_RTO_INITIAL = "RTO_INITIAL";
+	final String PAR_RTO_MAX = "RTO_MAX";
+	final String PAR_OP_TIMEOUT = "OP_TIMEOUT";
+	final String PAR_KADEMLIA_TERMINATION = "KADEMLIA_TERMINATION";
+	final String PAR_HEDGE = "HEDGE";
+	final String PAR_HEDGE_PERCENTILE = "HEDGE_PERCENTILE";
+	final String PAR_HEDGE_MAX = "HEDGE_MAX";
+	final String PAR_FINDVALUE_FANOUT = "FINDVALUE_FANOUT";
+	final String PAR_FINDVALUE_RETRIES = "FINDVALUE_RETRIES";
+	final String PAR_QUERY_DEADLINE = "QUERY_DEADLINE";
+	final String PAR_VALUE_WHILE_ROUTING = "VALUE_WHILE_ROUTING";
+	final String PAR_TRACE_SAMPLE = "TRACE_SAMPLE";
+	final String PAR_TRACE_FILE = "TRACE_FILE";
+
+	/**
+	 * number of slots of the timer wheel: with the default resolution it spans 2.56 seconds, longer timeouts just take more
+	 * revolutions
+	 */
+	private static final int TIMER_SLOTS = 256;
+
+	/**
+	 * number of round trip times a node samples before hedging its requests
+	 */
+	private static final int HEDGE_WARMUP = 16;
 
 	private static final String PAR_TRANSPORT = "transport";
 	private static String prefix = null;
@@ -43,7 +80,12 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 	/**
 	 * nodeId of this pastry node
 	 */
-	public BigInteger nodeId;
+	public NodeId nodeId;
+
+	/**
+	 * handle of this node in the {@link NodeDirectory}, -1 until it is registered
+	 */
+	public int handle = -1;
 
 	/**
 	 * routing table of this pastry node
@@ -53,12 +95,28 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 	/**
 	 * trace message sent for timeout purpose
 	 */
-	private TreeMap<Long, Long> sentMsg;
+	private InFlightTable sentMsg;
+
+	/**
+	 * pending timeouts of the sent requests, cancelled when the response arrives
+	 */
+	private TimerWheel timers;
+
+	/**
+	 * round trip times observed by this node
+	 */
+	private RttEstimator rttEstimator;
+
+	/**
+	 * round trip times observed towards the contacts of every k-bucket (indexed by prefix length, allocated with the first
+	 * request to the k-bucket), they give the timeouts of the requests
+	 */
+	private RttEstimator[] bucketRtt;
 
 	/**
 	 * find operations set
 	 */
-	private LinkedHashMap<Long, FindOperation> allIssuedfindOps;
+	private OperationTable allIssuedfindOps;
 
 	/**
 	 * Node storage , <item key, providers>
@@ -83,12 +141,23 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 	 * node cache capacity
 	 */
 	
-	private LRUCache cache;
+	private CachePolicy cache;
+
+	/**
+	 * arena of the cached posting lists of all the nodes, null unless CACHE_OFFHEAP
+	 */
+	private static PostingArena cacheArena = null;
+
+	/**
+	 * queries this node caches on behalf of the global index of the cached queries ({@link KademliaObserver#staticHashMap}),
+	 * see {@link #storeResultInCache(BigInteger, Set)}
+	 */
+	private HashSet<BigInteger> indexedInCache;
 	/**
 	 * Store the storage capacity sent by the node, and then send STORE after
 	 * sorting.
 	 */
-	private Map<BigInteger, Integer> nodeSpace;
+	private Map<NodeId, Integer> nodeSpace;
 
 	//private Set<String> receivedVals;
 
@@ -137,7 +206,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 	 * this useless constructor is for the message distribution process 
 	 * 
 	 */
-	public KademliaProtocol (BigInteger nodeId) {
+	public KademliaProtocol (NodeId nodeId) {
 		this.nodeId = nodeId;
 		routingTable = new RoutingTable();
 
@@ -170,13 +239,29 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 
 		routingTable = new RoutingTable();
 
-		sentMsg = new TreeMap<Long, Long>();
+		sentMsg = new InFlightTable();
+
+		timers = new TimerWheel(TIMER_SLOTS, KademliaCommonConfig.TIMER_RESOLUTION);
+
+		rttEstimator = new RttEstimator();
+
+		bucketRtt = new RttEstimator[KademliaCommonConfig.BITS + 1];
 
-		allIssuedfindOps = new LinkedHashMap<Long, FindOperation>();
+		allIssuedfindOps = new OperationTable(timers);
 
 		storeMap = new TreeMap<>();
 		searchResults = new TreeMap<>();
-		cache = new LRUCache(cacheCapacity);
+		// the capacity is shared: _init only runs for the prototype
+		cacheCapacity = KademliaCommonConfig.CACHE;
+		cache = CachePolicy.create(KademliaCommonConfig.CACHE_POLICY, cacheCapacity, KademliaCommonConfig.CACHE_BYTES,
+				KademliaCommonConfig.CACHE_ADMISSION);
+		if (KademliaCommonConfig.CACHE_OFFHEAP) {
+			if (cacheArena == null)
+				cacheArena = new PostingArena();
+			cache = new OffHeapCache(cache, cacheArena);
+		}
+		indexedInCache = new HashSet<>();
+		cache.setRemovalListener(this::cacheRemoved);
 		
 		//receivedVals = new HashSet<String>();
 
@@ -209,9 +294,36 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		// read parameters
 		KademliaCommonConfig.K = Configuration.getInt(prefix + "." + PAR_K, KademliaCommonConfig.K);
 		KademliaCommonConfig.ALPHA = Configuration.getInt(prefix + "." + PAR_ALPHA, KademliaCommonConfig.ALPHA);
+		KademliaCommonConfig.ADAPTIVE_ALPHA = Configuration.getBoolean(prefix + "." + PAR_ADAPTIVE_ALPHA, KademliaCommonConfig.ADAPTIVE_ALPHA);
+		KademliaCommonConfig.ALPHA_MIN = Configuration.getInt(prefix + "." + PAR_ALPHA_MIN, KademliaCommonConfig.ALPHA);
+		KademliaCommonConfig.ALPHA_MAX = Configuration.getInt(prefix + "." + PAR_ALPHA_MAX, 2 * KademliaCommonConfig.ALPHA);
 		KademliaCommonConfig.BITS = Configuration.getInt(prefix + "." + PAR_BITS, KademliaCommonConfig.BITS);
+		KademliaCommonConfig.REPLACEMENT_CACHE = Configuration.getInt(prefix + "." + PAR_REPLACEMENT_CACHE, KademliaCommonConfig.REPLACEMENT_CACHE);
+		KademliaCommonConfig.CACHE_POLICY = Configuration.getString(prefix + "." + PAR_CACHE_POLICY, KademliaCommonConfig.CACHE_POLICY);
+		KademliaCommonConfig.CACHE_BYTES = Configuration.getLong(prefix + "." + PAR_CACHE_BYTES, KademliaCommonConfig.CACHE_BYTES);
+		KademliaCommonConfig.CACHE_ADMISSION = Configuration.getBoolean(prefix + "." + PAR_CACHE_ADMISSION, KademliaCommonConfig.CACHE_ADMISSION);
+		KademliaCommonConfig.CACHE_TTL = Configuration.getLong(prefix + "." + PAR_CACHE_TTL, KademliaCommonConfig.CACHE_TTL);
+		KademliaCommonConfig.CACHE_TTL_DISTANCE = Configuration.getBoolean(prefix + "." + PAR_CACHE_TTL_DISTANCE, KademliaCommonConfig.CACHE_TTL_DISTANCE);
+		KademliaCommonConfig.CACHE_OFFHEAP = Configuration.getBoolean(prefix + "." + PAR_CACHE_OFFHEAP, KademliaCommonConfig.CACHE_OFFHEAP);
+		if (CachePolicy.create(KademliaCommonConfig.CACHE_POLICY, 0, 0, false) == null)
+			throw new IllegalParameterException(prefix + "." + PAR_CACHE_POLICY, "unknown cache policy " + KademliaCommonConfig.CACHE_POLICY);
+		KademliaCommonConfig.TIMER_RESOLUTION = Configuration.getInt(prefix + "." + PAR_TIMER_RESOLUTION, KademliaCommonConfig.TIMER_RESOLUTION);
+		KademliaCommonConfig.ADAPTIVE_TIMEOUT = Configuration.getBoolean(prefix + "." + PAR_ADAPTIVE_TIMEOUT, KademliaCommonConfig.ADAPTIVE_TIMEOUT);
+		KademliaCommonConfig.RTO_INITIAL = Configuration.getInt(prefix + "." + PAR_RTO_INITIAL, KademliaCommonConfig.RTO_INITIAL);
+		KademliaCommonConfig.RTO_MAX = Configuration.getInt(prefix + "." + PAR_RTO_MAX, KademliaCommonConfig.RTO_MAX);
+		KademliaCommonConfig.OP_TIMEOUT = Configuration.getInt(prefix + "." + PAR_OP_TIMEOUT, KademliaCommonConfig.OP_TIMEOUT);
+		KademliaCommonConfig.KADEMLIA_TERMINATION = Configuration.getBoolean(prefix + "." + PAR_KADEMLIA_TERMINATION, KademliaCommonConfig.KADEMLIA_TERMINATION);
+		KademliaCommonConfig.HEDGE = Configuration.getBoolean(prefix + "." + PAR_HEDGE, KademliaCommonConfig.HEDGE);
+		KademliaCommonConfig.HEDGE_PERCENTILE = Configuration.getInt(prefix + "." + PAR_HEDGE_PERCENTILE, KademliaCommonConfig.HEDGE_PERCENTILE);
+		KademliaCommonConfig.HEDGE_MAX = Configuration.getInt(prefix + "." + PAR_HEDGE_MAX, KademliaCommonConfig.HEDGE_MAX);
+		KademliaCommonConfig.FINDVALUE_FANOUT = Configuration.getInt(prefix + "." + PAR_FINDVALUE_FANOUT, KademliaCommonConfig.FINDVALUE_FANOUT);
+		KademliaCommonConfig.FINDVALUE_RETRIES = Configuration.getInt(prefix + "." + PAR_FINDVALUE_RETRIES, KademliaCommonConfig.FINDVALUE_RETRIES);
+		KademliaCommonConfig.QUERY_DEADLINE = Configuration.getInt(prefix + "." + PAR_QUERY_DEADLINE, KademliaCommonConfig.QUERY_DEADLINE);
+		KademliaCommonConfig.VALUE_WHILE_ROUTING = Configuration.getBoolean(prefix + "." + PAR_VALUE_WHILE_ROUTING, KademliaCommonConfig.VALUE_WHILE_ROUTING);
+		KademliaCommonConfig.TRACE_SAMPLE = Configuration.getDouble(prefix + "." + PAR_TRACE_SAMPLE, KademliaCommonConfig.TRACE_SAMPLE);
+		KademliaCommonConfig.TRACE_FILE = Configuration.getString(prefix + "." + PAR_TRACE_FILE, KademliaCommonConfig.TRACE_FILE);
 		
-		cacheCapacity = Configuration.getInt(prefix + "." + PAR_CACHE, 0);
+		KademliaCommonConfig.CACHE = Configuration.getInt(prefix + "." + PAR_CACHE, KademliaCommonConfig.CACHE);
 		_ALREADY_INSTALLED = true;
 	}
 	
@@ -239,48 +351,41 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 	 * @return
 	 */
 	public void setStoreMap(BigInteger key, Object val) {
-		storeMap.put(key, val);
+		stored(key, val, storeMap.put(key, val));
+	}
+
+	/**
+	 * a value has been stored: if it replaces a different one, the results cached for the key are outdated
+	 *
+	 * @param key the key stored
+	 * @param val the value stored
+	 * @param old the value it replaces, null if none
+	 */
+	private static void stored(BigInteger key, Object val, Object old) {
+		if (old != null && !old.equals(val))
+			StoreVersion.update(key);
 	}
 	/**
-	 * Search through the network the Node having a specific node Id, by performing
-	 * binary search (we concern about the ordering of the network). Finding a node
-	 * by binary search
+	 * Return the Node having a specific node Id, using the global {@link NodeDirectory} (constant time)
 	 * 
-	 * @param searchNodeId BigInteger
+	 * @param searchNodeId NodeId
 	 * @return Node
 	 */
-	private Node nodeIdtoNode(BigInteger searchNodeId) {
-		if (searchNodeId == null)
-			return null;
-
-		int inf = 0;
-		int sup = Network.size() - 1;
-		int m;
-
-		while (inf <= sup) {
-			m = (inf + sup) / 2;
-
-			BigInteger mId = ((KademliaProtocol) Network.get(m).getProtocol(kademliaid)).nodeId;
-
-			if (mId.equals(searchNodeId))
-				return Network.get(m);
-
-			if (mId.compareTo(searchNodeId) < 0)
-				inf = m + 1;
-			else
-				sup = m - 1;
-		}
-
-		// perform a traditional search for more reliability (maybe the network is not
-		// ordered)
-		BigInteger mId;
-		for (int i = Network.size() - 1; i >= 0; i--) {
-			mId = ((KademliaProtocol) Network.get(i).getProtocol(kademliaid)).nodeId;
-			if (mId.equals(searchNodeId))
-				return Network.get(i);
-		}
+	private Node nodeIdtoNode(NodeId searchNodeId) {
+		return NodeDirectory.lookup(searchNodeId, kademliaid);
+	}
 
-		return null;
+	/**
+	 * Return the Node having a specific handle, falling back to the node id when the handle is not known
+	 * 
+	 * @param handle int, -1 if unknown
+	 * @param searchNodeId NodeId
+	 * @return Node
+	 */
+	private Node handleToNode(int handle, NodeId searchNodeId) {
+		if (handle >= 0)
+			return NodeDirectory.node(handle);
+		return nodeIdtoNode(searchNodeId);
 	}
 
 	/**
@@ -293,9 +398,10 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 	 * operation.
 	 *
 	 * @param m     Message
+	 * @param rtt   round trip time of the request answered by m, -1 if the answer is late or missing (timeout)
 	 * @param myPid the sender Pid
 	 */
-	private void route(Message m, int myPid) {
+	private void route(Message m, long rtt, int myPid) {
 		// add message source to my routing table
 		if (m.src != null) {
 			routingTable.addNeighbour(m.src);// Add the node that sent resp to the routing table
@@ -304,31 +410,53 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		// get corresponding find operation (using the message field operationId)
 		// - Get fop, each node maintains a fop map, which is equivalent to a transfer
 		// process, the nodes are consistent in the process
-		FindOperation fop = this.allIssuedfindOps.get(m.operationId);
+		FindOperation fop = this.allIssuedfindOps.get(m.operationId, CommonState.getTime());
 		
+		if (fop != null && fop.lookupDone && KademliaCommonConfig.KADEMLIA_TERMINATION) {
+			// late answer of a node that is no longer among the closest ones
+			return;
+		}
+
 		if (fop != null) {
+			// the source of the message has answered
+			if (m.src != null) {
+				fop.closestSet.setResponded(m.src);
+				if (fop.span != null)
+					fop.span.hop(CommonState.getTime(), m.srcHandle, QuerySpan.HOP_RESPONSE, rtt);
+			}
+
 			// save received neighbor in the closest Set of find operation
 			try {
 				// - k nodes in the m.body are known to be the nearest node to the target. Use
 				// these nodes to update the closeSet of the fop.
-				fop.elaborateResponse((BigInteger[]) m.body);
+				int added = fop.elaborateResponse((int[]) m.body);
+				// a late answer: the timeout of its request has already widened the lookup
+				if (rtt >= 0 || m.src == null)
+					adaptParallelism(fop, rtt, added > 0);
 			} catch (Exception ex) {
 				fop.available_requests++;
 			}
+			if (rtt < 0 && m.src != null) {
+				// late answer of a request that has timed out: its slot has already been given back by the timeout
+				fop.available_requests--;
+			}
+
+			// kademlia termination: the lookup is over as soon as all of the K closest nodes known have answered, the
+			// requests still outstanding (to farther nodes) are not waited for
+			if (KademliaCommonConfig.KADEMLIA_TERMINATION && fop.closestSet.allResponded() && fop.closestSet.nextUnqueried() < 0) {
+				finishLookup(fop, m, myPid);
+				return;
+			}
 
 			while (fop.available_requests > 0) { // I can send a new find request -Can also send routing requests
 
 				// get an available neighbor
-				BigInteger neighbour = fop.getNeighbour();
+				NodeId neighbour = fop.getNeighbour();
 				//System.out.println("new list: "+((BigInteger[]) m.body)[0]);
 				//System.out.println("to be queried: "+neighbour);
 				if (neighbour != null) {
 					// create a new request to send to neighbor
-					Message request = new Message(Message.MSG_ROUTE);
-					request.operationId = m.operationId;
-					request.src = this.nodeId;
-					request.dest = m.dest;
-					request.timestamp = fop.timestamp;
+					Message request = routeRequest(fop);
 					//System.out.println(m.body);
 					//System.out.println(m.body instanceof BigInteger);
 //					if(fop.body instanceof BigInteger) {
@@ -347,76 +475,13 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 					
 					// increment hop count
 					fop.nrHops++;
+					fop.routeMessages++;
 					
 					// send find request
-					sendMessage(request, neighbour, myPid);
-				} else if (fop.available_requests == KademliaCommonConfig.ALPHA) { // no new neighbor and no outstanding
+					sendMessage(request, neighbour, fop.handleOf(neighbour), myPid);
+				} else if (fop.available_requests == fop.alpha) { // no new neighbor and no outstanding
 																					// requests
-					
-					/* 24 SEP 
-					I have commented out below remove operation bcz first of all I need the 
-					prev ops to stay so that I merge multiple keyword search parts.
-					secondly there was no different between removing it or leaving it in the term of cachehit or findmsg
-					*/
-					// search operation finished
-					//allIssuedfindOps.remove(fop.operationId);
-					
-					// - Randomly generated FIND_NODE message
-					if (fop.body.equals("Automatically Generated Traffic")
-							&& fop.closestSet.containsKey(fop.destNode)) {
-						// update statistics
-						long timeInterval = (CommonState.getTime()) - (fop.timestamp);
-						KademliaObserver.timeStore.add(timeInterval);
-						KademliaObserver.hopStore.add(fop.nrHops);
-						KademliaObserver.msg_deliv.add(1);
-					} else if (fop.body instanceof StoreFile) { // store the kv in the closest nodes set
-						for (BigInteger node : fop.closestSet.keySet()) {
-							Message storeSpaceReqMsg = new Message(Message.MSG_STORE_SPACE_REQ, fop.body);
-							storeSpaceReqMsg.src = this.nodeId;
-							storeSpaceReqMsg.dest = node;
-							storeSpaceReqMsg.operationId = m.operationId;
-							// for findnode prev condition is finishing line, but for msg_store we still have to exchange msgs
-							fop.nrHops++;
-							sendMessage(storeSpaceReqMsg, node, myPid);
-							
-							// XXX - the stdout is only for debugging
-							// System.out.println("send space ask msg to node:" + node);
-						}
-					} else if (fop.body instanceof BigInteger) { // ask the closest nodes for a value of the requested key.
-//						System.out.println(fop.body);
-//						System.out.println(fop.body instanceof BigInteger);
-//						//m.body = new BigInteger[2];
-//						System.out.println(((BigInteger[])m.body).length);
-//						System.out.println(m.body);
-//						System.exit(1);
-						for (BigInteger node : fop.closestSet.keySet()) {
-							Message findValMsg = new Message(Message.MSG_FINDVALUE, fop.body);
-							// Message findValMsg = new Message(Message.MSG_FINDVALUE, "HELLLOOOOO");
-							findValMsg.src = this.nodeId;
-							findValMsg.dest = node;
-							findValMsg.operationId = m.operationId;
-							findValMsg.timestamp = fop.timestamp;
-							// new findVal message sent to one of the nodes in the closestSet 
-							fop.outstanding_find_requests++;
-							// there is one more sendMessge from this src to dest node so increase nrHops
-							fop.nrHops++;
-							//long timeInterval = (CommonState.getTime()) - (fop.timestamp);
-							//if(timeInterval>2000)
-							//System.out.println( ++KademliaObserver.h + "- " + timeInterval + " : " + fop.nrHops);
-							// KademliaObserver.queryMsgTime.add(timeInterval);
-							// FIXME the time interval is per search or per msg?? if per search then you should not count it here, rather it should be
-							// counted when receiving the first valid answer for my search in receiveVal() 
-							KademliaObserver.hopFindValue.add(fop.nrHops);
-							sendMessage(findValMsg, node, myPid);
-						}
-					} /*
-						 * else { System.out.println("Message got f***** up");
-						 * System.out.println("simple m.body name: " +
-						 * fop.body.getClass().getSimpleName()); System.out.println("name of m.body: " +
-						 * fop.body.getClass().getName()); System.out.println("m.body value: " +
-						 * fop.body); }
-						 */
-
+					finishLookup(fop, m, myPid);
 					return;
 
 				} else { // no neighbor available but exists outstanding request to wait
@@ -441,6 +506,159 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		}
 	}
 
+	/**
+	 * create a MSG_ROUTE request of a lookup
+	 *
+	 * @param fop FindOperation
+	 * @return Message
+	 */
+	private Message routeRequest(FindOperation fop) {
+		Message request = new Message(Message.MSG_ROUTE);
+		request.operationId = fop.operationId;
+		request.src = this.nodeId;
+		request.dest = fop.destNode;
+		request.timestamp = fop.timestamp;
+		if (KademliaCommonConfig.VALUE_WHILE_ROUTING && fop.body instanceof BigInteger) {
+			// every hop can return the value, not only the first ALPHA ones
+			request.body = fop.body;
+		}
+		return request;
+	}
+
+	/**
+	 * a MSG_ROUTE request hasn't been answered within the HEDGE_PERCENTILE percentile of the recent round trip times: query
+	 * the next closest node not queried yet too, instead of waiting for the slow one. The hedged request borrows a request
+	 * slot of the lookup, which is given back when both requests are over.
+	 *
+	 * @param h     hedge timer of the slow request
+	 * @param myPid the sender Pid
+	 */
+	private void hedge(Timeout h, int myPid) {
+		if (!sentMsg.containsKey(h.msgID)) // answered or timed out in the meantime
+			return;
+		FindOperation fop = this.allIssuedfindOps.get(h.opID, CommonState.getTime());
+		if (fop == null || fop.lookupDone || fop.hedges >= KademliaCommonConfig.HEDGE_MAX)
+			return;
+		NodeId neighbour = fop.getNeighbour();
+		if (neighbour == null)
+			return;
+		fop.hedges++;
+		fop.nrHops++;
+		fop.routeMessages++;
+		KademliaObserver.hedgedRequests.add(1);
+		Message request = routeRequest(fop);
+		sendMessage(request, neighbour, fop.handleOf(neighbour), myPid);
+		sentMsg.get(request.id).hedgedMsgID = h.msgID;
+	}
+
+	/**
+	 * The lookup of a find operation is over (the closest nodes to the key are known): complete the operation according to
+	 * its kind (FIND_NODE statistics, store the file in the closest nodes or ask them for the value)
+	 *
+	 * @param fop   FindOperation
+	 * @param m     the last message received for the operation
+	 * @param myPid the sender Pid
+	 */
+	private void finishLookup(FindOperation fop, Message m, int myPid) {
+		fop.lookupDone = true;
+		if (fop.span != null)
+			fop.span.lookupEnd = CommonState.getTime();
+		
+		/* 24 SEP 
+		I have commented out below remove operation bcz first of all I need the 
+		prev ops to stay so that I merge multiple keyword search parts.
+		secondly there was no different between removing it or leaving it in the term of cachehit or findmsg
+		*/
+		// search operation finished
+		//allIssuedfindOps.remove(fop.operationId);
+		// (the operation is removed below, unless it still waits for the values of a FINDVALUE)
+		
+		// - Randomly generated FIND_NODE message
+		if (fop.body.equals("Automatically Generated Traffic")
+				&& fop.closestSet.contains(fop.destNode)) {
+			// update statistics
+			long timeInterval = (CommonState.getTime()) - (fop.timestamp);
+			KademliaObserver.timeStore.add(timeInterval);
+			KademliaObserver.hopStore.add(fop.nrHops);
+			KademliaObserver.msg_deliv.add(1);
+		} else if (fop.body instanceof StoreFile) { // store the kv in the closest nodes set
+			for (int i = 0; i < fop.closestSet.size(); i++) {
+				NodeId node = fop.closestSet.get(i);
+				Message storeSpaceReqMsg = new Message(Message.MSG_STORE_SPACE_REQ, fop.body);
+				storeSpaceReqMsg.src = this.nodeId;
+				storeSpaceReqMsg.dest = node;
+				storeSpaceReqMsg.operationId = m.operationId;
+				// for findnode prev condition is finishing line, but for msg_store we still have to exchange msgs
+				fop.nrHops++;
+				sendMessage(storeSpaceReqMsg, node, fop.closestSet.handle(i), myPid);
+				
+				// XXX - the stdout is only for debugging
+				// System.out.println("send space ask msg to node:" + node);
+			}
+		} else if (fop.body instanceof BigInteger) { // ask the closest nodes for a value of the requested key.
+			// all of them, or only the FINDVALUE_FANOUT closest ones: the others are asked one by one at every miss or timeout
+			int fanout = KademliaCommonConfig.FINDVALUE_FANOUT > 0 ? KademliaCommonConfig.FINDVALUE_FANOUT : fop.closestSet.size();
+			for (int i = 0; i < fanout && requestValue(fop, myPid); i++)
+				;
+		} /*
+			 * else { System.out.println("Message got f***** up");
+			 * System.out.println("simple m.body name: " +
+			 * fop.body.getClass().getSimpleName()); System.out.println("name of m.body: " +
+			 * fop.body.getClass().getName()); System.out.println("m.body value: " +
+			 * fop.body); }
+			 */
+
+		if (fop.body instanceof BigInteger) {
+			if (fop.outstanding_find_requests == 0) { // nobody to ask for the value
+				allIssuedfindOps.abandon(fop.operationId);
+			}
+		} else if (fop.body instanceof StoreFile || fop.closestSet.contains(fop.destNode)) {
+			allIssuedfindOps.complete(fop.operationId);
+		} else { // the node to find has not been found
+			allIssuedfindOps.abandon(fop.operationId);
+		}
+	}
+
+	/**
+	 * ask the next node of the closest set (in ascending distance from the key) for the value of a find value operation
+	 *
+	 * @param fop   FindOperation whose lookup is over
+	 * @param myPid the sender Pid
+	 * @return true if the request has been sent, false if all of the closest nodes have already been asked
+	 */
+	private boolean requestValue(FindOperation fop, int myPid) {
+		if (fop.valueCursor >= fop.closestSet.size())
+			return false;
+		int i = fop.valueCursor++;
+		requestValue(fop, fop.closestSet.get(i), fop.closestSet.handle(i), myPid);
+		return true;
+	}
+
+	/**
+	 * ask a node for the value of a find value operation
+	 *
+	 * @param fop    FindOperation whose lookup is over
+	 * @param node   NodeId
+	 * @param handle handle of the node, -1 if unknown
+	 * @param myPid  the sender Pid
+	 */
+	private void requestValue(FindOperation fop, NodeId node, int handle, int myPid) {
+		Message findValMsg = new Message(Message.MSG_FINDVALUE, fop.body);
+		findValMsg.src = this.nodeId;
+		findValMsg.dest = node;
+		findValMsg.operationId = fop.operationId;
+		findValMsg.timestamp = fop.timestamp;
+		// new findVal message sent to one of the nodes in the closestSet 
+		fop.outstanding_find_requests++;
+		// there is one more sendMessge from this src to dest node so increase nrHops
+		fop.nrHops++;
+		// FIXME the time interval is per search or per msg?? if per search then you should not count it here, rather it should be
+		// counted when receiving the first valid answer for my search in receiveVal() 
+		KademliaObserver.hopFindValue.add(fop.nrHops);
+		sendMessage(findValMsg, node, handle, myPid);
+		fop.valueRequested(findValMsg.id);
+	}
+
 	/**
 	 * Response to a route request.<br>
 	 * Find the ALPHA closest node consulting the k-buckets and return them to the
@@ -450,6 +668,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 	 * @param myPid the sender Pid
 	 * 
 	 */
+	@SuppressWarnings(value = { "unchecked" })
 	private void routeResponse(Message m, int myPid) {
 		
 		/*
@@ -479,27 +698,29 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 				++KademliaObserver.h;
 				// System.out.println(KademliaObserver.h);
 			}*/
-			/*if(this.storeMap.containsKey(key)) {
-				//locallyAvailable = true;
+			if(KademliaCommonConfig.VALUE_WHILE_ROUTING && this.storeMap.containsKey(key)) {
+				locallyAvailable = true;
 				KademliaObserver.storageHit.add(1);
-				//sendValue(m, myPid);
-				//return;
-			} else*/
-			if(this.cache.member(key)){
+				sendValue(m, myPid);
+				return;
+			}
+			Set<String> cached = (Set<String>) this.cache.get(key);
+			if(cached != null){
 				locallyAvailable = true;
 				KademliaObserver.cacheHitPerMsg.add(1);
-				sendValueFromCache(m, myPid);
+				sendValueFromCache(m, cached, myPid);
 				//System.exit(22);
 				return;
 			}
+			KademliaObserver.cacheMissPerMsg.add(1);
 		} 
 		if (!locallyAvailable) {
 			// - Returns the K known nodes closest to the target node
-			BigInteger[] neighbours = this.routingTable.getNeighbours(m.dest, m.src);
+			NodeId[] neighbours = this.routingTable.getNeighbours(m.dest, m.src);
 	
-			// create a response message containing the neighbors (with the same id of the
+			// create a response message containing the handles of the neighbors (with the same id of the
 			// request)
-			Message response = new Message(Message.MSG_RESPONSE, neighbours);// The known k nearest node returns to the node
+			Message response = new Message(Message.MSG_RESPONSE, NodeDirectory.handlesOf(neighbours));// The known k nearest node returns to the node
 																				// src
 			response.operationId = m.operationId;
 			response.dest = m.dest;
@@ -507,10 +728,34 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 			response.ackId = m.id; // set ACK number
 	
 			// send back the neighbors to the source of the message
-			sendMessage(response, m.src, myPid);
+			sendMessage(response, m.src, m.srcHandle, myPid);
 		}
 	}
 	
+	/**
+	 * add an operation just created to the table of the issued operations. A find value query gets a deadline of its own
+	 * (QUERY_DEADLINE), with a timer that expires it if it hasn't got its value by then, so a query whose messages are lost
+	 * fails in time rather than hanging until the table is used again. The timer is cancelled when the query ends before.
+	 *
+	 * @param fop   FindOperation
+	 * @param myPid the sender Pid
+	 */
+	private void issue(FindOperation fop, int myPid) {
+		long now = CommonState.getTime();
+		if (fop.body instanceof BigInteger) {
+			long deadline = KademliaCommonConfig.QUERY_DEADLINE > 0 ? KademliaCommonConfig.QUERY_DEADLINE
+					: KademliaCommonConfig.OP_TIMEOUT;
+			allIssuedfindOps.put(fop, now, deadline);
+			Timeout t = new Timeout(this.nodeId, this.handle, -1, fop.operationId);
+			t.opDeadline = true;
+			fop.deadlineTimer = t;
+			scheduleTimeout(t, deadline, handleToNode(this.handle, this.nodeId), myPid);
+		} else {
+			allIssuedfindOps.put(fop, now);
+		}
+		QueryTracer.start(fop, this.handle);
+	}
+
 	/**
 	 * Start a find node operation. Find the ALPHA closest node and send find
 	 * request to them.
@@ -527,12 +772,12 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		// create find operation and add to operations array
 		FindOperation fop = new FindOperation(m.dest, m.timestamp);
 		fop.body = m.body;
-		allIssuedfindOps.put(fop.operationId, fop);
+		issue(fop, myPid);
 		
 		// get up to K closest nodes to the srcNode (or to a key) and add to find operation
-		BigInteger[] neighbours = this.routingTable.getNeighbours(m.dest, this.nodeId);
+		NodeId[] neighbours = this.routingTable.getNeighbours(m.dest, this.nodeId);
 		fop.elaborateResponse(neighbours);
-		fop.available_requests = KademliaCommonConfig.ALPHA;
+		fop.available_requests = fop.alpha;
 		
 		// set message operation id，
 		// - Forward information
@@ -541,12 +786,13 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		m.src = this.nodeId;
 		//System.out.println(m.body);
 		// send ALPHA messages
-		for (int i = 0; i < KademliaCommonConfig.ALPHA; i++) {
-			BigInteger nextNode = fop.getNeighbour(); // get the first neighbor in closest set which has not been
+		for (int i = 0; i < fop.alpha; i++) {
+			NodeId nextNode = fop.getNeighbour(); // get the first neighbor in closest set which has not been
 														// already queried
 			if (nextNode != null) {
-				sendMessage(m.copy(), nextNode, myPid);
+				sendMessage(m.copy(), nextNode, fop.handleOf(nextNode), myPid);
 				fop.nrHops++;
+				fop.routeMessages++;
 			}
 			//System.out.println(m.copy());
 			/*
@@ -570,6 +816,8 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		// repeat below process by the number of keywords in the query
 		// create find operations and add them to the allIssuedOperations array
 		BigInteger[] mBodyArr = (BigInteger[]) m.body;
+		// m.dest is the routing form of the (combined) query key, the cache and the global index are keyed by the BigInteger
+		BigInteger queryKey = m.dest.toBigInteger();
 		
 		//System.out.println(mBodyArr.length);
 		//System.out.println(mBodyArr[0]);
@@ -578,7 +826,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		 * check whether the requested key is cached by someone or not?
 		 */
 		//if(KademliaObserver.cachedQueries.containsKey(m.dest))
-		if(KademliaObserver.staticHashMap.containsKey(m.dest))
+		if(KademliaObserver.staticHashMap.containsKey(queryKey))
 		//if(false)
 		//if(KademliaObserver.staticHashTable.contains(m.dest.toString()))
 		{
@@ -588,7 +836,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 			 * but it never happened to say something is in hashmap while not in cacheQueries!!!
 			 * then why would I get false posetives such as having no result in receive val()
 			 */
-			if(!KademliaObserver.cachedQueries.containsKey(m.dest)) {
+			if(!KademliaObserver.cachedQueries.containsKey(queryKey)) {
 				System.out.println(m.dest);
 				System.exit(13);
 			}
@@ -596,7 +844,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 			 * I can say m.body = m.dest
 			 * but I wanted to create an independent object not a mere reference.
 			 */
-			m.body = new BigInteger(m.dest.toString());
+			m.body = queryKey;
 			//System.out.println(m.body);
 			//System.out.println(m.dest);
 			//System.out.println(((BigInteger)m.body).equals(((BigInteger)m.dest)));
@@ -626,7 +874,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 						e.printStackTrace();
 					}
 					// check against cuckoo hash table
-					if(KademliaObserver.staticHashMap.containsKey(m.dest))
+					if(KademliaObserver.staticHashMap.containsKey(queryKey))
 					//if(KademliaObserver.staticHashTable.contains(multikeyHash.toString()))
 					{
 						// store the sets that are available in in cache
@@ -679,12 +927,12 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		boolean timeIsSet = false;
 		long settedTime = 0;
 		for(int i=0, msgLength=mBodyArr.length; i<msgLength; i++) {
-			FindOperation fop = new FindOperation(mBodyArr[i], m.timestamp);
+			FindOperation fop = new FindOperation(NodeId.valueOf(mBodyArr[i]), m.timestamp);
 			fop.body = mBodyArr[i];
 			fop.keywords = mBodyArr;
 			if(msgLength>1) {
 				// m.dest contains the combined keyword hash
-				fop.parent = m.dest;
+				fop.parent = m.dest.toBigInteger();
 				if(!timeIsSet) {
 					settedTime = CommonState.getTime();
 					fop.startingTime = settedTime;
@@ -697,13 +945,13 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 				System.exit(10);
 			}*/
 			
-			allIssuedfindOps.put(fop.operationId, fop);
+			issue(fop, myPid);
 
 			// get the ALPHA closest node to srcNode and add to find operation
 			// get up to K closest nodes to the srcNode (or to a key) and add to find operation
-			BigInteger[] neighbours = this.routingTable.getNeighbours(mBodyArr[i], this.nodeId);
+			NodeId[] neighbours = this.routingTable.getNeighbours(fop.destNode, this.nodeId);
 			fop.elaborateResponse(neighbours);
-			fop.available_requests = KademliaCommonConfig.ALPHA;
+			fop.available_requests = fop.alpha;
 			
 			// set message operation id，
 			// - Forward information
@@ -712,16 +960,17 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 			m.src = this.nodeId;
 
 			// send ALPHA messages
-			for (int a = 0; a < KademliaCommonConfig.ALPHA; a++) {
-				BigInteger nextNode = fop.getNeighbour(); // get the first neighbor in closest set which has not been
+			for (int a = 0; a < fop.alpha; a++) {
+				NodeId nextNode = fop.getNeighbour(); // get the first neighbor in closest set which has not been
 														// already queried
 				Message pendingMessage = null;
 				if (nextNode != null) {
 					pendingMessage = m.copy();
 					pendingMessage.body = mBodyArr[i];
-					pendingMessage.dest = mBodyArr[i];
-					sendMessage(pendingMessage, nextNode, myPid);
+					pendingMessage.dest = fop.destNode;
+					sendMessage(pendingMessage, nextNode, fop.handleOf(nextNode), myPid);
 					fop.nrHops++;
+					fop.routeMessages++;
 				}
 				
 				//System.out.println(pendingMessage);
@@ -746,7 +995,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		StoreFile sf = (StoreFile) m.body;
 		boolean storedSucceed = false;
 		if (this.storeCapacity >= sf.getSize()) {
-			this.storeMap.put(sf.getKey(), sf.getValue());
+			stored(sf.getKey(), sf.getValue(), this.storeMap.put(sf.getKey(), sf.getValue()));
 			// XXX - the stdout is only for debugging
 			// System.out.println("Node:" + this.nodeId + "(" + this.storeCapacity + "-" + sf.getSize() + ")"
 					// + " storing kv data:" + sf.toString());
@@ -771,7 +1020,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		storeRespMsg.dest = m.src;
 		storeRespMsg.operationId = m.operationId;
 		KademliaObserver.sendstore_resp.add(1);
-		sendMessage(storeRespMsg, m.src, myPid);
+		sendMessage(storeRespMsg, m.src, m.srcHandle, myPid);
 
 	}
 
@@ -816,7 +1065,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		spaceRespMsg.src = this.nodeId;
 		spaceRespMsg.dest = m.src;
 		spaceRespMsg.operationId = m.operationId;
-		sendMessage(spaceRespMsg, m.src, myPid);
+		sendMessage(spaceRespMsg, m.src, m.srcHandle, myPid);
 		// XXX - the stdout is only for debugging
 		// System.out.println(
 				// "node:" + this.nodeId + " available space:" + sf.getStoreNodeRemainSize() + " to key: " + sf.getKey());
@@ -836,18 +1085,18 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		this.nodeSpace.put(m.src, ((StoreFile) m.body).getStoreNodeRemainSize());
 		if (this.nodeSpace.size() >= KademliaCommonConfig.K) { // wait until all space request msgs are returned, then
 																// sort and send store request message
-			List<Map.Entry<BigInteger, Integer>> list = new ArrayList<>(nodeSpace.entrySet());
+			List<Map.Entry<NodeId, Integer>> list = new ArrayList<>(nodeSpace.entrySet());
 			// Sort by comparator
 			Collections.sort(list, (o1, o2) -> {
 				// Descending order
 				return o2.getValue().compareTo(o1.getValue());
 			});
-//			for (Map.Entry<BigInteger, Integer> mapping : list) {
+//			for (Map.Entry<NodeId, Integer> mapping : list) {
 //				System.out.println(mapping.getKey() + ":" + mapping.getValue());
 //			}
 			// int i = 3; //why? it should be K as long as K is the replication parameter.
 			int i = KademliaCommonConfig.K;
-			for (Map.Entry<BigInteger, Integer> nodeMap : list) {
+			for (Map.Entry<NodeId, Integer> nodeMap : list) {
 				/*
 				 * currently the receiver will check its own storage, and respond with
 				 * succeed=true or succeed=false and adding failed store operation to the
@@ -880,8 +1129,11 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 	@SuppressWarnings(value = { "unchecked" })
 	private void sendValue(Message m, int myPid) {
 		
-		//TODO - followiong observer value mustn't be increased in case of premature val return (as I check in #routResponse())
-		KademliaObserver.closeNodeValExpected.add(1);
+		// the closeNode statistics are about the nodes asked once the lookup is over, not about a premature value return
+		// (a storage hit in #routeResponse())
+		boolean closeNode = m.getType() == Message.MSG_FINDVALUE;
+		if (closeNode)
+			KademliaObserver.closeNodeValExpected.add(1);
 		BigInteger key = (BigInteger) m.body;
 		// System.out.println(this.nodeId);
 		// BigInteger key = new BigInteger( ((BigInteger)m.body).toString(10), 10);
@@ -907,8 +1159,9 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 			// XXX - the stdout is only for debugging
 			// System.out.println("node:" + nodeId + " return value " + val + " to node:" + m.src);
 			//System.out.println("value for queried key: "+m);
-			sendMessage(returnValMsg, m.src, myPid);
-			KademliaObserver.closeNodeHadVal.add(1);
+			sendMessage(returnValMsg, m.src, m.srcHandle, myPid);
+			if (closeNode)
+				KademliaObserver.closeNodeHadVal.add(1);
 		} else {
 			//System.out.println("NO value for queried key: "+m);
 			//System.exit(1212);
@@ -925,7 +1178,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 			msg_body.add(values);
 			returnValMsg.body = msg_body;
 			returnValMsg.timestamp = m.timestamp;
-			sendMessage(returnValMsg, m.src, myPid);
+			sendMessage(returnValMsg, m.src, m.srcHandle, myPid);
 			KademliaObserver.closeNodeNoVal.add(1);
 		}
 	}
@@ -933,17 +1186,18 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 	/**
 	 * return queried kv from cache (cache hit)
 	 * 
+	 * @param cached the values found in the cache, null if none
 	 */
-	@SuppressWarnings(value = { "unchecked" })
-	private void sendValueFromCache(Message m, int myPid) {
+	private void sendValueFromCache(Message m, Set<String> cached, int myPid) {
 		
 		// KademliaObserver.closeNodeValExpected.add(1);
 		BigInteger key = (BigInteger) m.body;
 		// System.out.println(this.nodeId);
 		// BigInteger key = new BigInteger( ((BigInteger)m.body).toString(10), 10);
-		boolean valueExist = this.cache.member(key);
+		boolean valueExist = cached != null;
 		if(valueExist) {
-			Set<String> values = new HashSet<String>((Set<String>)this.cache.get(key));
+			// a view of the arena only lives until the next change of the cache (see CachePolicy.get)
+			Set<String> values = cached instanceof PostingList ? ((PostingList) cached).copy() : new HashSet<String>(cached);
 			ArrayList<Object> msg_body = new ArrayList<>();
 			msg_body.add(key);
 			msg_body.add(values);
@@ -957,7 +1211,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 			returnValMsg.timestamp = m.timestamp;
 			// XXX - the stdout is only for debugging
 			// System.out.println("////////node:" + nodeId + " return value " + values + " to node:" + m.src);
-			sendMessage(returnValMsg, m.src, myPid);
+			sendMessage(returnValMsg, m.src, m.srcHandle, myPid);
 			// KademliaObserver.closeNodeHadVal.add(1);
 		}
 		else {
@@ -970,7 +1224,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 			//returnValMsg.body = "No Value for the requested query";
 			returnValMsg.body = 0;
 			returnValMsg.timestamp = m.timestamp;
-			sendMessage(returnValMsg, m.src, myPid);
+			sendMessage(returnValMsg, m.src, m.srcHandle, myPid);
 			KademliaObserver.closeNodeNoVal.add(1);
 		}
 	}
@@ -978,16 +1232,18 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 	 * receive the result of your issued query from corresponding node
 	 *  in {@link #sendValue(Message, int)}
 	 * @param m
+	 * @param rtt round trip time of the request, -1 if it was answered after its timeout
 	 * @param myPid
 	 */
 	@SuppressWarnings(value = { "unchecked" })
-	private void receiveVal(Message m, int myPid) {
+	private void receiveVal(Message m, long rtt, int myPid) {
 		
 		// if the queried node has no data about the requested query
 		if(((ArrayList<Object>) m.body).get(1) instanceof Integer && (int)((ArrayList<Object>) m.body).get(1) == 0) {
 			//System.out.println(m.body);
-			FindOperation fop = this.allIssuedfindOps.get(m.operationId);
-			if (fop != null) {
+			FindOperation fop = this.allIssuedfindOps.get(m.operationId, CommonState.getTime());
+			// a late answer: the timeout of the request has already given its slot up and asked another node
+			if (fop != null && rtt >= 0) {
 				//deleteResultInCache(fop.body);
 				//System.exit(1);
 				/**
@@ -1000,14 +1256,20 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 				 * 		so agar la cuckoo remove bkain awkat wak awa waya blein kas niati
 				 * 		sarbari awash datwanin blein awai remove dakre is the least important key so its safe to remove altogether
 				 */
+				if (fop.span != null)
+					fop.span.hop(CommonState.getTime(), m.srcHandle, QuerySpan.HOP_NO_VALUE, -1);
 				fop.outstanding_find_requests--;
+				if (KademliaCommonConfig.FINDVALUE_FANOUT > 0) { // ask the next closest node instead
+					requestValue(fop, myPid);
+				}
 				if(fop.outstanding_find_requests == 0) {
 					
 					searchResults.put(((ArrayList<BigInteger>) m.body).get(0), new HashSet<String>());
-					allIssuedfindOps.remove(m.operationId);
 					
 					// if search was single keyword
 					if(fop.parent == null) {
+						// nobody has the value: the query failed
+						allIssuedfindOps.abandon(m.operationId);
 						//System.out.println(fop);
 						return;
 						// FIXME why do we have failed findvals?? there should be something with the routing table
@@ -1017,6 +1279,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 						*/
 						// System.exit(12);
 					} else {// if search was multikeyword
+						allIssuedfindOps.complete(m.operationId);
 						System.exit(12);
 						//preserve current messages time to compare it to the next messages time then choosing the longest one
 						long queryTimeInterval = (CommonState.getTime()) - (m.timestamp);
@@ -1035,7 +1298,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 							if(searchResults.get(key) == null) {
 								searchFinished = false; // not necessary
 								return; //return if search not finished yet
-							} else if(!((HashSet<String>)searchResults.get(key)).isEmpty()){
+							} else if(!((Set<String>)searchResults.get(key)).isEmpty()){
 								totalResultIsEmpty = false;
 							}
 						}
@@ -1062,7 +1325,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 			//long timeInterval1 = (CommonState.getTime()) - (m.timestamp);
 			//System.out.println( ++KademliaObserver.h + "- " + timeInterval1 + " : " + m.nrHops);
 			BigInteger receKey = ((ArrayList<BigInteger>) m.body).get(0);
-			Set<String> receVal = ((ArrayList<HashSet<String>>) m.body).get(1);
+			Set<String> receVal = ((ArrayList<Set<String>>) m.body).get(1);
 			
 			/**
 			 * the condition below is to make sure we count the received value one time since we may receive results of the issued query from 
@@ -1074,12 +1337,18 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 			 */
 			if(searchResults.get(receKey) == null) {
 				//------
-				FindOperation fop = this.allIssuedfindOps.get(m.operationId);
+				FindOperation fop = this.allIssuedfindOps.get(m.operationId, CommonState.getTime());
 				if (fop != null && receKey != null) {
+					if (fop.span != null)
+						fop.span.hop(CommonState.getTime(), m.srcHandle, QuerySpan.HOP_VALUE, -1);
 					searchResults.put(receKey, receVal);
-					allIssuedfindOps.remove(m.operationId);
+					allIssuedfindOps.complete(m.operationId);
+					// the other nodes asked for the value are not waited for
+					for (int i = 0; i < fop.valueRequests; i++) {
+						cancelRequest(fop.valueRequestIds[i]);
+					}
 					// self cache
-					this.cache.set(receKey, receVal);
+					this.cache.set(receKey, receVal, cacheTtl(receKey));
 					// if search was multikeyword
 					if(fop.parent != null) {
 						System.exit(222);
@@ -1148,7 +1417,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		//allValues = (HashSet<String>) searchResults.get(fop.keywords[0]); //creates a reference not new obj
 		allValues = new HashSet<String>((Set<String>) searchResults.get(fop.keywords[0]));
 		for(int x=1; x<fop.keywords.length; x++) { 
-			allValues.retainAll((HashSet<String>) searchResults.get(fop.keywords[x]));
+			allValues.retainAll((Set<String>) searchResults.get(fop.keywords[x]));
 		}
 		/*if(!allValues.isEmpty()) {
 			//System.out.println(allValues);
@@ -1158,6 +1427,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		}*/
 		//searchResults.put(fop.parent, allValues);
 		storeResultInCache(fop.parent, allValues);
+		QueryTracer.joined(fop.parent);
 		KademliaObserver.findVal_success.add(1);
 		KademliaObserver.queryMsgTime.add(CommonState.getTime() - (long)searchResults.get(fop.parent));
 		/*
@@ -1179,6 +1449,40 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		searchResults.remove(fop.parent);
 	}
 	
+	/**
+	 * entries removed from the cache of this node: a query no longer cached by any node leaves the global index
+	 * 
+	 * @param removals the entries removed by an operation of the cache
+	 */
+	private void cacheRemoved(List<CachePolicy.Removal> removals) {
+		for (CachePolicy.Removal r : removals) {
+			if (r.cause == CachePolicy.REMOVED_EXPIRED)
+				KademliaObserver.cacheExpired.add(1);
+			else if (r.cause == CachePolicy.REMOVED_OUTDATED)
+				KademliaObserver.cacheOutdated.add(1);
+			if (indexedInCache.remove(r.key))
+				KademliaObserver.uncacheQuery(r.key);
+		}
+	}
+
+	/**
+	 * time to live of a result cached by this node: CACHE_TTL or, with CACHE_TTL_DISTANCE, CACHE_TTL halved for every node
+	 * between this node and the closest node to the key. With uniformly spread ids, about N * d / 2^BITS nodes are closer to
+	 * the key than a node at XOR distance d from it.
+	 * 
+	 * @param key the key of the cached result
+	 * @return simulated time units, 0 if the result never expires
+	 */
+	private long cacheTtl(BigInteger key) {
+		long ttl = KademliaCommonConfig.CACHE_TTL;
+		if (ttl <= 0 || !KademliaCommonConfig.CACHE_TTL_DISTANCE)
+			return ttl;
+		BigInteger closer = this.nodeId.toBigInteger().xor(key).multiply(BigInteger.valueOf(Network.size()))
+				.shiftRight(KademliaCommonConfig.BITS);
+		int between = closer.bitLength() < 7 ? closer.intValue() : 63;
+		return Math.max(1, ttl >> Math.min(63, between));
+	}
+
 	/**
 	 * Cache the search result in the node with the closest NodeId to the issued query directly 
 	 * without following proper DHT steps bcz we are not interested in knowing the bandwidth cost or time cost of this process.
@@ -1186,23 +1490,18 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 	 * @param receVal <br>The received result set
 	 */static int maxSize = 99; // max number of cache when 2 keywords used in queries raised to 2524 when [2-3] keywords are used
 	public void storeResultInCache(BigInteger receKey, Set<String> receVal) {
-		this.cache.set(receKey, receVal);
-		BigInteger[] kClosestNodeIds = KademliaObserver.supernode.routingTable.getNeighbours2(receKey, KademliaObserver.supernode.getNodeId());
+		this.cache.set(receKey, receVal, cacheTtl(receKey));
+		NodeId[] kClosestNodeIds = KademliaObserver.supernode.routingTable.getNeighbours2(NodeId.valueOf(receKey), KademliaObserver.supernode.getNodeId());
 		
-		for (BigInteger closeNodeId : kClosestNodeIds) {
+		for (NodeId closeNodeId : kClosestNodeIds) {
 			Node tmp = nodeIdtoNode(closeNodeId);
 			if(!tmp.isUp()) {
 				continue;
 			}
 			KademliaProtocol closeNodeKad = (KademliaProtocol) tmp.getProtocol(kademliaid);
-			closeNodeKad.cache.set(receKey, receVal);
-			KademliaObserver.cachedQueries.put(receKey, 1);
-			BigInteger closeNodeLastRKey = closeNodeKad.cache.getLastRemovedKey();
-			if(closeNodeLastRKey != null) {
-				KademliaObserver.staticHashMap.remove(closeNodeLastRKey);
-				//KademliaObserver.staticHashTable.remove(closeNodeLastRKey.toString());
-				KademliaObserver.cachedQueries.remove(closeNodeLastRKey);
-				
+			// the node's removal listener drops it from the index when it leaves the cache
+			if (closeNodeKad.cache.set(receKey, receVal, closeNodeKad.cacheTtl(receKey)) && closeNodeKad.indexedInCache.add(receKey)) {
+				KademliaObserver.cacheQuery(receKey, receVal);
 			}
 			if(closeNodeKad.cache.getSize()>maxSize) {
 				maxSize=closeNodeKad.cache.getSize();
@@ -1225,8 +1524,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 			 *}
 			 */
 		}
-		// update the hash map to show that the query "recekey" is cached. 
-		KademliaObserver.staticHashMap.put(receKey, receVal.toString());
+		// the hash map shows that the query "recekey" is cached as long as one of the nodes above caches it
 		//KademliaObserver.staticHashTable.insert(receKey.toString());
 	}
 
@@ -1257,7 +1555,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		// TODO change closes node to true for the src of this msg
 		// FIXME if I do fop.available_requests++; without stopping the other ongoing searches, somehow the available_requests will be increased by 2 for msg 761, meaning available will become 5   
 		// TODO maybe I have to stop all other ongoiing requests when I receive one result
-		FindOperation fop = this.allIssuedfindOps.get(m.operationId);
+		FindOperation fop = this.allIssuedfindOps.get(m.operationId, CommonState.getTime());
 		if (fop == null) { // I'm not sure! this happens when among ALPHA requests more than one has it in cache, so first node returns value faster and src node will remove the operation from issuedfindops, then it receives answer from second nodes cache 
 							//(other than cache reponses, msgs will timeout)
 			return;
@@ -1272,11 +1570,11 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		
 		//fop.available_requests++;
 		//this remove will make other ongoing searches useless and result in "something wrong with protocol" output
-		this.allIssuedfindOps.remove(m.operationId);
+		this.allIssuedfindOps.complete(m.operationId);
 		// TODO - nrHops should be moved to the inside if condition below I think, bcz we want to count if its the first result
 		KademliaObserver.hopFindValue.add(fop.nrHops);
 		BigInteger receKey = ((ArrayList<BigInteger>) m.body).get(0);
-		Set<String> receVal = ((ArrayList<HashSet<String>>) m.body).get(1);
+		Set<String> receVal = ((ArrayList<Set<String>>) m.body).get(1);
 		if((Set<String>)searchResults.get(receKey) == null || !((Set<String>)searchResults.get(receKey)).containsAll(receVal)) {
 		//if (!receivedVals.contains(receVal)) {
 			searchResults.put(receKey, receVal);
@@ -1306,13 +1604,13 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 		/**
 		* the condition is used to make sure that the requested peer had the value for the query.
 		* even though we don't need this check because all values that are sent via #sendValueFromCache 
-		* are valid values since we call {@link #sendValueFromCache(Message, int)} only once
+		* are valid values since we call {@link #sendValueFromCache(Message, Set, int)} only once
 		* and that is when the cache has a record for it.
 		*/
 		if(!(((ArrayList<Object>) m.body).get(1) instanceof Integer) ) {
 
 			BigInteger receKey = ((ArrayList<BigInteger>) m.body).get(0);
-			Set<String> receVal = ((ArrayList<HashSet<String>>) m.body).get(1);
+			Set<String> receVal = ((ArrayList<Set<String>>) m.body).get(1);
 			
 			/**
 			 * the condition below is to make sure we count the received value one time since we may receive results of the issued query from 
@@ -1324,12 +1622,14 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 			 */		
 			if(searchResults.get(receKey) == null) {
 				//------
-				FindOperation fop = this.allIssuedfindOps.get(m.operationId);
+				FindOperation fop = this.allIssuedfindOps.get(m.operationId, CommonState.getTime());
 				if (fop != null && receKey != null) {
+					if (fop.span != null)
+						fop.span.hop(CommonState.getTime(), m.srcHandle, QuerySpan.HOP_CACHE_VALUE, -1);
 					searchResults.put(receKey, receVal);
-					allIssuedfindOps.remove(m.operationId);
+					allIssuedfindOps.complete(m.operationId);
 					// self cache
-					this.cache.set(receKey, receVal);
+					this.cache.set(receKey, receVal, cacheTtl(receKey));
 					// if search was multikeyword
 					if(fop.parent != null) {
 						System.exit(222);
@@ -1393,23 +1693,162 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 	 * @param destId the Id of the destination node
 	 * @param myPid  the sender Pid
 	 */
-	public void sendMessage(Message m, BigInteger destId, int myPid) {
-		// add destination to routing table
-		this.routingTable.addNeighbour(destId);
+	public void sendMessage(Message m, NodeId destId, int myPid) {
+		sendMessage(m, destId, -1, myPid);
+	}
 
-		Node src = nodeIdtoNode(this.nodeId);
-		Node dest = nodeIdtoNode(destId);
+	/**
+	 * send a message to a node whose handle is already known (e.g. the source of the message being answered), so the
+	 * destination is taken straight from the node table
+	 *
+	 * @param m          the message to send
+	 * @param destId     the Id of the destination node
+	 * @param destHandle the handle of the destination node, -1 if unknown
+	 * @param myPid      the sender Pid
+	 */
+	public void sendMessage(Message m, NodeId destId, int destHandle, int myPid) {
+		// the destination only enters the routing table once it answers (see route() and processEvent), so a node that
+		// doesn't answer isn't refreshed by every request sent to it
+		if (destHandle < 0)
+			destHandle = NodeDirectory.handleOf(destId);
+		Node src = handleToNode(this.handle, this.nodeId);
+		Node dest = handleToNode(destHandle, destId);
+		m.srcHandle = this.handle;
+		m.destHandle = destHandle;
 
 		transport = (UnreliableTransport) (Network.prototype).getProtocol(tid);
 		transport.send(src, dest, m, kademliaid);
 
-		if (m.getType() == Message.MSG_ROUTE) { // is a request
-			Timeout t = new Timeout(destId, m.id, m.operationId);
-			long latency = transport.getLatency(src, dest);
-			// System.out.println(latency*4);
+		if (m.getType() == Message.MSG_ROUTE || m.getType() == Message.MSG_FINDVALUE) { // is a request
+			Timeout t = new Timeout(destId, destHandle, m.id, m.operationId);
+			t.requestType = m.getType();
+			long delay;
+			if (KademliaCommonConfig.ADAPTIVE_TIMEOUT) {
+				delay = requestTimeout(destId);
+			} else {
+				delay = 4 * transport.getLatency(src, dest); // set delay = 2*RTT(Round trip time)
+			}
 			// add to sent msg
-			this.sentMsg.put(m.id, m.timestamp);
-			EDSimulator.add(4 * latency, t, src, myPid); // set delay = 2*RTT(Round trip time)
+			this.sentMsg.put(m.id, t);
+			scheduleTimeout(t, delay, src, myPid);
+
+			if (KademliaCommonConfig.HEDGE && m.getType() == Message.MSG_ROUTE && rttEstimator.samples() >= HEDGE_WARMUP) {
+				long hedgeDelay = rttEstimator.percentile(KademliaCommonConfig.HEDGE_PERCENTILE);
+				if (hedgeDelay < delay) { // otherwise the timeout comes first
+					t.hedgeTimer = new Timeout(destId, destHandle, m.id, m.operationId);
+					t.hedgeTimer.hedge = true;
+					scheduleTimeout(t.hedgeTimer, hedgeDelay, src, myPid);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param destId contact
+	 * @return the timeout of a request to the contact: the RTO of its k-bucket, or of the node if no request to the k-bucket
+	 *         has been answered yet, or RTO_INITIAL if no request at all has been answered
+	 */
+	private long requestTimeout(NodeId destId) {
+		RttEstimator bucket = bucketRtt[Util.bucketIndex(this.nodeId, destId)];
+		long rto = bucket != null ? bucket.rto(KademliaCommonConfig.TIMER_RESOLUTION) : -1;
+		if (rto < 0)
+			rto = rttEstimator.rto(KademliaCommonConfig.TIMER_RESOLUTION);
+		if (rto < 0)
+			rto = KademliaCommonConfig.RTO_INITIAL;
+		return Math.min(rto, KademliaCommonConfig.RTO_MAX);
+	}
+
+	/**
+	 * @param contact NodeId
+	 * @return the round trip time estimator of the k-bucket of the contact
+	 */
+	private RttEstimator bucketRtt(NodeId contact) {
+		int i = Util.bucketIndex(this.nodeId, contact);
+		if (bucketRtt[i] == null)
+			bucketRtt[i] = new RttEstimator();
+		return bucketRtt[i];
+	}
+
+	/**
+	 * start the timer of a request. The timeout is kept in the timer wheel of the node and only a tick event at the earliest
+	 * deadline is added to the simulator
+	 *
+	 * @param t      Timeout
+	 * @param delay  long
+	 * @param myNode this node
+	 * @param myPid  the sender Pid
+	 */
+	private void scheduleTimeout(Timeout t, long delay, Node myNode, int myPid) {
+		long now = CommonState.getTime();
+		timers.schedule(t, now + delay);
+		armTimers(now + delay, myNode, myPid);
+	}
+
+	/**
+	 * add a tick event to the simulator unless one is already pending at or before the deadline
+	 */
+	private void armTimers(long deadline, Node myNode, int myPid) {
+		long now = CommonState.getTime();
+		if (deadline >= 0 && timers.needsTick(deadline, now)) {
+			timers.setTick(deadline);
+			EDSimulator.add(deadline - now, new SimpleEvent(TimerWheel.TICK), myNode, myPid);
+		}
+	}
+
+	/**
+	 * the response to a request has arrived: forget the request and cancel its timeout
+	 *
+	 * @param msgId id of the request
+	 * @return the round trip time of the request, -1 if it wasn't waiting for a response (e.g. it already timed out)
+	 */
+	private long requestAnswered(long msgId) {
+		Timeout t = sentMsg.remove(msgId);
+		if (t == null)
+			return -1;
+		if (timers.cancel(t)) {
+			KademliaObserver.cancelledTimeouts.add(1);
+		}
+		if (t.hedgeTimer != null)
+			timers.cancel(t.hedgeTimer);
+		if (t.hedgedMsgID >= 0 && sentMsg.containsKey(t.hedgedMsgID)) // the hedge answered before the slow request
+			KademliaObserver.hedgeWins.add(1);
+		long rtt = CommonState.getTime() - t.timestamp;
+		rttEstimator.sample(rtt);
+		bucketRtt(t.node).sample(rtt);
+		return rtt;
+	}
+
+	/**
+	 * a request is not waited for any more: forget it and cancel its timeout
+	 *
+	 * @param msgId id of the request
+	 */
+	private void cancelRequest(long msgId) {
+		Timeout t = sentMsg.remove(msgId);
+		if (t != null) {
+			timers.cancel(t);
+			if (t.hedgeTimer != null)
+				timers.cancel(t.hedgeTimer);
+		}
+	}
+
+	/**
+	 * adapt the parallelism of a lookup to the last answer: one more request in flight when the answer is slow (more than
+	 * twice the smoothed RTT) or missing, one less when a timely answer doesn't improve the closest set any more. A late
+	 * answer isn't counted, its timeout has already been
+	 *
+	 * @param fop      FindOperation
+	 * @param rtt      round trip time of the answer, -1 if it is missing (the request has timed out)
+	 * @param improved true if the answer brought new nodes in the closest set
+	 */
+	private void adaptParallelism(FindOperation fop, long rtt, boolean improved) {
+		if (!KademliaCommonConfig.ADAPTIVE_ALPHA)
+			return;
+		long srtt = rttEstimator.srtt();
+		if (rtt < 0 || (srtt >= 0 && rtt > 2 * srtt)) {
+			fop.setAlpha(fop.alpha + 1);
+		} else if (!improved && (srtt < 0 || rtt <= srtt)) {
+			fop.setAlpha(fop.alpha - 1);
 		}
 	}
 
@@ -1447,8 +1886,7 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 
 		case Message.MSG_RESPONSE:
 			m = (Message) event;
-			sentMsg.remove(m.ackId);
-			route(m, myPid);
+			route(m, requestAnswered(m.ackId), myPid);
 			break;
 
 		case Message.MSG_EMPTY:
@@ -1513,8 +1951,9 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 			
 			// `if` condition parameter was m.body but changed to m.dest bcz after adding the multikeyword capability
 			// the m.body holds the array of keys while the m.dest holds the the combined keyword hash value
-			if (!this.cache.member(m.dest) ) {
-				searchResults.put(m.dest, null);
+			if (this.cache.get(m.dest.toBigInteger()) == null) {
+				KademliaObserver.cacheMissPerMsg.add(1);
+				searchResults.put(m.dest.toBigInteger(), null);
 				// XXX - the stdout is only for debugging
 				// System.err.println("Again This node:" + this.nodeId + "'s foundedVals:" + this.findVals+"\n");
 				KademliaObserver.findVal_times.add(1);
@@ -1542,37 +1981,28 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 
 		case Message.MSG_RETURNVALUE:
 			m = (Message) event;
-			receiveVal(m, myPid);
+			routingTable.addNeighbour(m.src);// the node answering is alive
+			receiveVal(m, requestAnswered(m.ackId), myPid);
 			break;
 			
 		case Message.MSG_RETURNVALUE_FROM_CACHE:
 			m = (Message) event;
-			sentMsg.remove(m.ackId);
+			routingTable.addNeighbour(m.src);// the node answering is alive
+			requestAnswered(m.ackId);
 			receiveValFromCache(m, myPid);
 			break;
 
 		case Timeout.TIMEOUT: // timeout
-			Timeout t = (Timeout) event;
-			if (sentMsg.containsKey(t.msgID)) { // the response msg isn't arrived
-				//System.out.println(t);
-				//System.exit(222);
-				// remove from sentMsg
-				sentMsg.remove(t.msgID);
-				
-				//no need below code bcz this timeout is only PING timeout and has nothing to do with my messages
-				// -remove from closestSet of find operation if not already removed
-				/*if(this.allIssuedfindOps.get(t.opID) != null) {
-					
-					this.allIssuedfindOps.get(t.opID).closestSet.remove(t.node);
-					// remove node from my routing table
-					this.routingTable.removeNeighbour(t.node);
-					// try another node
-					Message m1 = new Message();
-					m1.operationId = t.opID;
-					m1.src = nodeId;
-					m1.dest = this.allIssuedfindOps.get(t.opID).destNode;
-					this.route(m1, myPid);
-				}*/
+			timeout((Timeout) event, myPid);
+			break;
+
+		case TimerWheel.TICK: // the earliest pending timeout has expired
+			long now = CommonState.getTime();
+			if (timers.isTick(now)) { // otherwise the tick has been superseded by an earlier one
+				for (Timeout expired : timers.expire(now)) {
+					timeout(expired, myPid);
+				}
+				armTimers(timers.nextDeadline(now), myNode, myPid);
 			}
 			break;
 
@@ -1580,17 +2010,128 @@ public class KademliaProtocol implements Cloneable, EDProtocol {
 
 	}
 
+	/**
+	 * a request has not been answered in time
+	 *
+	 * @param t     Timeout of the request
+	 * @param myPid the sender Pid
+	 */
+	private void timeout(Timeout t, int myPid) {
+		if (t.hedge) {
+			hedge(t, myPid);
+			return;
+		}
+		if (t.opDeadline) { // expire the operation if it is still pending
+			allIssuedfindOps.sweep(CommonState.getTime());
+			return;
+		}
+		if (sentMsg.containsKey(t.msgID)) { // the response msg isn't arrived
+			//System.out.println(t);
+			//System.exit(222);
+			// remove from sentMsg
+			sentMsg.remove(t.msgID);
+			if (t.hedgeTimer != null)
+				timers.cancel(t.hedgeTimer);
+			
+			// -remove from closestSet of find operation if not already removed, then use the request slot of the
+			// dead node to query another one (an empty response gives the slot back)
+			FindOperation fop = this.allIssuedfindOps.get(t.opID, CommonState.getTime());
+			if (fop != null && fop.span != null)
+				fop.span.hop(CommonState.getTime(), t.nodeHandle, QuerySpan.HOP_TIMEOUT, -1);
+			// ask the next closest node for the value, or the same node again if all of them have been asked (the
+			// request or its answer may have been lost), a bounded number of times; give up when nobody is left
+			boolean retrySame = false;
+			if (fop != null && t.requestType == Message.MSG_FINDVALUE) {
+				fop.outstanding_find_requests--;
+				if (fop.valueRetries < KademliaCommonConfig.FINDVALUE_RETRIES) {
+					fop.valueRetries++;
+					KademliaObserver.valueRetries.add(1);
+					retrySame = !requestValue(fop, myPid);
+				}
+			}
+
+			// the contact didn't answer: evict it from my routing table, the most recent contact of the
+			// replacement cache of its k-bucket takes its place. A contact asked again gets the retry to answer first
+			if (!retrySame) {
+				this.routingTable.removeNeighbour(t.node);
+				KademliaObserver.evictedContacts.add(1);
+			}
+
+			if (fop != null && t.requestType == Message.MSG_FINDVALUE) {
+				if (retrySame)
+					requestValue(fop, t.node, t.nodeHandle, myPid);
+				if (fop.outstanding_find_requests == 0) {
+					allIssuedfindOps.abandon(fop.operationId);
+				}
+			} else if (fop != null) {
+				fop.closestSet.remove(t.node);
+				Message m1 = new Message(Message.MSG_RESPONSE, new int[0]);
+				m1.operationId = t.opID;
+				m1.dest = fop.destNode;
+				this.route(m1, -1, myPid);
+			}
+		}
+	}
+
 	/**
 	 * set the current NodeId
 	 * 
-	 * @param tmp BigInteger
+	 * @param tmp NodeId
 	 */
-	public void setNodeId(BigInteger tmp) {
+	public void setNodeId(NodeId tmp) {
 		this.nodeId = tmp;
 		this.routingTable.nodeId = tmp;
 	}
 
-	public BigInteger getNodeId() {
+	public NodeId getNodeId() {
 		return nodeId;
 	}
+
+	/**
+	 * set the handle of this node in the {@link NodeDirectory}
+	 * 
+	 * @param handle int
+	 */
+	public void setHandle(int handle) {
+		this.handle = handle;
+	}
+
+	public int getHandle() {
+		return handle;
+	}
+
+	/**
+	 * @return number of requests sent by this node and still waiting for a response
+	 */
+	public int getInFlightRequests() {
+		return sentMsg.size();
+	}
+
+	/**
+	 * @return highest number of requests this node had in flight at the same time
+	 */
+	public int getPeakInFlightRequests() {
+		return sentMsg.peak();
+	}
+
+	/**
+	 * @return number of find operations issued by this node that haven't finished yet
+	 */
+	public int getPendingOperations() {
+		return allIssuedfindOps.size();
+	}
+
+	/**
+	 * @return weight of the values in the result cache of this node, in bytes
+	 */
+	public long getCacheWeight() {
+		return cache.getWeight();
+	}
+
+	/**
+	 * @return the arena of the cached posting lists, null unless CACHE_OFFHEAP
+	 */
+	public static PostingArena getCacheArena() {
+		return cacheArena;
+	}
 }
@@ -0,0 +1,142 @@
+package peersim;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Least frequently used {@link CachePolicy}: the entry with the fewest accesses since it entered the cache is evicted, the
+ * least recently used one among those with the same count, until the entries and their weight fit in the cache.<br>
+ * The keys are kept in a list per access count, so that an access is O(1).
+ *
+ * @version 1.0
+ */
+public class LFUCache extends AbstractCache {
+
+	private final int capacity;
+
+	private final long maxBytes;
+
+	private long weight = 0;
+
+	private final HashMap<BigInteger, Object> values = new HashMap<BigInteger, Object>();
+
+	private final HashMap<BigInteger, Integer> counts = new HashMap<BigInteger, Integer>();
+
+	// keys by access count, from the least to the most recently used
+	private final HashMap<Integer, LinkedHashSet<BigInteger>> byCount = new HashMap<Integer, LinkedHashSet<BigInteger>>();
+
+	// lowest access count of the cached keys
+	private int minCount = 0;
+
+	/**
+	 * @param capacity
+	 *            maximum number of entries
+	 * @param maxBytes
+	 *            maximum weight of the values (see {@link CachePolicy#weigh(Object)}), 0 for no limit
+	 */
+	public LFUCache(int capacity, long maxBytes) {
+		this.capacity = capacity;
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	protected Object read(BigInteger key) {
+		Object value = values.get(key);
+		if (value != null)
+			touch(key);
+		return value;
+	}
+
+	@Override
+	public boolean set(BigInteger key, Object value) {
+		if (values.containsKey(key)) {
+			weight += CachePolicy.weigh(value) - CachePolicy.weigh(values.put(key, value));
+			touch(key);
+		} else if (capacity <= 0) {
+			return false;
+		} else {
+			if (values.size() >= capacity)
+				evict();
+			values.put(key, value);
+			weight += CachePolicy.weigh(value);
+			counts.put(key, 1);
+			keysOf(1).add(key);
+			minCount = 1;
+		}
+		// evict entries until their weight fits in the byte budget
+		while (maxBytes > 0 && weight > maxBytes)
+			evict();
+		notifyRemovals();
+		return values.containsKey(key);
+	}
+
+	// evict the least recently used of the least frequently used entries
+	private void evict() {
+		BigInteger victim = byCount.get(minCount).iterator().next();
+		removed(victim, unlink(victim), REMOVED_CAPACITY);
+	}
+
+	@Override
+	protected Object unlink(BigInteger key) {
+		Integer count = counts.remove(key);
+		if (count == null)
+			return null;
+		LinkedHashSet<BigInteger> keys = byCount.get(count);
+		keys.remove(key);
+		if (keys.isEmpty()) {
+			byCount.remove(count);
+			if (minCount == count)
+				minCount = byCount.isEmpty() ? 0 : Collections.min(byCount.keySet());
+		}
+		Object value = values.remove(key);
+		weight -= CachePolicy.weigh(value);
+		return value;
+	}
+
+	// one more access to a cached key
+	private void touch(BigInteger key) {
+		int count = counts.get(key);
+		LinkedHashSet<BigInteger> keys = byCount.get(count);
+		keys.remove(key);
+		if (keys.isEmpty()) {
+			byCount.remove(count);
+			if (minCount == count)
+				minCount++;
+		}
+		counts.put(key, count + 1);
+		keysOf(count + 1).add(key);
+	}
+
+	private LinkedHashSet<BigInteger> keysOf(int count) {
+		LinkedHashSet<BigInteger> keys = byCount.get(count);
+		if (keys == null) {
+			keys = new LinkedHashSet<BigInteger>();
+			byCount.put(count, keys);
+		}
+		return keys;
+	}
+
+	@Override
+	protected boolean contains(BigInteger key) {
+		return values.containsKey(key);
+	}
+
+	@Override
+	public Set<BigInteger> allKeys() {
+		return values.keySet();
+	}
+
+	@Override
+	public int getSize() {
+		return values.size();
+	}
+
+	@Override
+	public long getWeight() {
+		return weight;
+	}
+
+}
@@ -7,18 +7,32 @@ import java.util.Map;
 import java.util.Set;
 
 /**
+ * Least recently used {@link CachePolicy}, the default one, optionally behind an {@link AdmissionFilter} (CACHE_ADMISSION).
+ * 
  * @author Nawras Nazar
  * 
  * originally from {@link https://www.geeksforgeeks.org/design-a-data-structure-for-lru-cache/}
  */
-public class LRUCache { 
+public class LRUCache extends AbstractCache { 
     private LinkedHashMap<BigInteger, Object> map; 
     private final int CAPACITY; 
-    private BigInteger lastRemovedKey;
+    private final long MAX_BYTES;
+    private final AdmissionFilter admission;
+    private long weight = 0;
     public LRUCache(int capacity) 
+    { 
+        this(capacity, 0, false);
+    }
+    /**
+     * @param capacity maximum number of entries
+     * @param maxBytes maximum weight of the values (see {@link CachePolicy#weigh(Object)}), 0 for no limit
+     * @param admit put an {@link AdmissionFilter} in front of the cache
+     */
+    public LRUCache(int capacity, long maxBytes, boolean admit) 
     { 
         CAPACITY = capacity; 
-        lastRemovedKey = null;
+        MAX_BYTES = maxBytes;
+        admission = admit ? new AdmissionFilter(capacity) : null;
         map = new LinkedHashMap<BigInteger, Object>(capacity, 0.75f, true) {
             /**
 			 * auto-generated by IDE
@@ -36,7 +50,8 @@ public class LRUCache {
 					// System.err.println(size());
 					// System.err.println(getLastKey().toString());
 					// System.err.println("eldest:: "+eldest.getKey());
-					setLastRemovedKey((BigInteger) eldest.getKey());
+					removed((BigInteger) eldest.getKey(), eldest.getValue(), REMOVED_CAPACITY);
+					weight -= CachePolicy.weigh(eldest.getValue());
 					return true;
 				} else {
 					return false;
@@ -53,29 +68,52 @@ public class LRUCache {
         return new BigInteger(String.valueOf(map.keySet().toArray()[map.size() - 1]));
     }
   
-    public BigInteger getLastRemovedKey() {
-    	// allow for one time return only.
-    	BigInteger tmp = lastRemovedKey;
-    	lastRemovedKey = null;
-		return tmp;
-	}
-	public void setLastRemovedKey(BigInteger lastRemovedKey) {
-		this.lastRemovedKey = lastRemovedKey;
-	}
 	// This method works in O(1) 
-    public Object get(BigInteger key) 
+    protected Object read(BigInteger key) 
     { 
         // System.out.println("Going to get the value " + "for the key : " + key); 
         // return map.getOrDefault(key, -1);
+        if (admission != null)
+            admission.record(key);
         return map.get(key);
         
     } 
   
     // This method works in O(1) 
-    public void set(BigInteger key, Object value) 
+    public boolean set(BigInteger key, Object value) 
     { 
         // System.out.println("Going to set the (key, " + "value) : (" + key + ", " + value + ")"); 
-        map.put(key, value); 
+        if (admission != null) {
+            // a new entry that needs room is cached only if it is worth the least recently used one; its access has
+            // been recorded by the lookup that missed it
+            if (!map.isEmpty() && !map.containsKey(key) && (map.size() >= CAPACITY
+                    || (MAX_BYTES > 0 && weight + CachePolicy.weigh(value) > MAX_BYTES))) {
+                BigInteger victim = map.keySet().iterator().next();
+                if (!admission.admit(key, victim)) {
+                    KademliaObserver.cacheRejected.add(1);
+                    return false;
+                }
+            }
+        }
+        // put first: removeEldestEntry updates the weight of an entry it evicts
+        Object old = map.put(key, value);
+        weight += CachePolicy.weigh(value) - CachePolicy.weigh(old);
+        // then the least recently used entries are evicted until the values fit in the byte budget
+        while (MAX_BYTES > 0 && weight > MAX_BYTES && !map.isEmpty()) {
+            Map.Entry<BigInteger, Object> eldest = map.entrySet().iterator().next();
+            map.remove(eldest.getKey());
+            weight -= CachePolicy.weigh(eldest.getValue());
+            removed(eldest.getKey(), eldest.getValue(), REMOVED_CAPACITY);
+        }
+        notifyRemovals();
+        return map.containsKey(key);
+    } 
+    
+    protected Object unlink(BigInteger key) 
+    { 
+        Object value = map.remove(key);
+        weight -= CachePolicy.weigh(value);
+        return value;
     } 
     
     /**
@@ -83,7 +121,7 @@ public class LRUCache {
      * @param key
      * @return
      */
-    public boolean member(BigInteger key) {
+    protected boolean contains(BigInteger key) {
     	return this.map.containsKey(key);
     }
     
@@ -103,6 +141,14 @@ public class LRUCache {
     	return this.map.size();
     }
     
+    /**
+     * return the weight of the values in the map
+     * @return
+     */
+    public long getWeight() {
+    	return weight;
+    }
+    
     public static void main(String[] args) 
     { 
         
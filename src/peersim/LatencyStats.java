@@ -0,0 +1,58 @@
+package peersim;
+
+import java.util.Arrays;
+
+import peersim.util.IncrementalStats;
+
+/**
+ * {@link IncrementalStats} that also keeps a histogram of the values, so that the percentiles (the tail of the query latency)
+ * can be reported besides the average and the maximum. The buckets are {@link #BUCKET} time units wide.
+ *
+ * @version 1.0
+ */
+public class LatencyStats extends IncrementalStats {
+
+	/**
+	 * width of a bucket of the histogram, in simulated time units
+	 */
+	public static final int BUCKET = 10;
+
+	private long[] counts = new long[64];
+
+	@Override
+	public void add(double item, int k) {
+		super.add(item, k);
+		int b = (int) Math.max(0, item / BUCKET);
+		if (b >= counts.length)
+			counts = Arrays.copyOf(counts, Math.max(b + 1, counts.length * 2));
+		counts[b] += k;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		// reset() is called by the super constructor, before counts is initialized
+		if (counts != null)
+			Arrays.fill(counts, 0);
+	}
+
+	/**
+	 * @param p
+	 *            percentile, in (0, 100]
+	 * @return the value (lower bound of its bucket) below which p percent of the values are, -1 if there are no values
+	 */
+	public long getPercentile(double p) {
+		long n = getN();
+		if (n == 0)
+			return -1;
+		long rank = (long) Math.ceil(p / 100 * n);
+		long seen = 0;
+		for (int b = 0; b < counts.length; b++) {
+			seen += counts[b];
+			if (seen >= rank)
+				return (long) b * BUCKET;
+		}
+		return (long) getMax();
+	}
+
+}
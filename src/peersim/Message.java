@@ -2,8 +2,6 @@ package peersim;
 
 //import sun.misc.resources.Messages_fr; **The import sun.misc.resources cannot be resolved
 
-import java.math.BigInteger;
-
 /**
  * 
  * Message class provide all functionalities to magage the various messages, principally LOOKUP messages (messages from
@@ -119,12 +117,22 @@ public class Message extends SimpleEvent {
 	 * Recipient address of the message
 	 * in find operation this is either the nodeId or the key that we want to find closest nodes to it. <br>
 	 */
-	public BigInteger dest;
+	public NodeId dest;
 
 	/**
 	 * Source address of the message: has to be filled at application level
 	 */
-	public BigInteger src;
+	public NodeId src;
+
+	/**
+	 * handle of the source node in the {@link NodeDirectory} (filled when the message is sent), -1 if unknown
+	 */
+	public int srcHandle = -1;
+
+	/**
+	 * handle of the node the message is sent to in the {@link NodeDirectory} (filled when the message is sent), -1 if unknown
+	 */
+	public int destHandle = -1;
 
 	/**
 	 * Available to count the number of hops the message did.
@@ -233,6 +241,7 @@ public class Message extends SimpleEvent {
 		Message dolly = new Message();
 		dolly.type = this.type;
 		dolly.src = this.src;
+		dolly.srcHandle = this.srcHandle;
 		dolly.dest = this.dest;
 		dolly.operationId = this.operationId;
 		// FIXME this should be deep clone not adding a reference only (for now its ok)
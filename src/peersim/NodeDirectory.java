@@ -0,0 +1,149 @@
+package peersim;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import peersim.core.Network;
+import peersim.core.Node;
+
+/**
+ * Global directory of the simulated nodes.<br>
+ * Every node gets a dense int handle when its id is assigned ({@link CustomDistribution} for the initial nodes and
+ * {@link Turbulence#add()} for the nodes joining later). The handle indexes a node table, so a Node (or its NodeId) is
+ * obtained from a handle by a plain array access, and from a NodeId in constant time. The table refers to Node objects rather
+ * than to positions in the {@link Network}, so it stays valid when the network is sorted again. Nodes that fail are kept (as
+ * DOWN) like in the Network.
+ *
+ * @version 1.0
+ */
+public class NodeDirectory {
+
+	// node table, indexed by handle
+	private static Node[] nodes = new Node[1024];
+
+	// id of the node with the same handle
+	private static NodeId[] ids = new NodeId[1024];
+
+	// number of handles assigned so far
+	private static int size = 0;
+
+	private static final HashMap<NodeId, Integer> handles = new HashMap<NodeId, Integer>();
+
+	/**
+	 * register the node owning the given id and assign it the next handle
+	 *
+	 * @param id
+	 *            NodeId
+	 * @param node
+	 *            Node
+	 * @return the handle of the node
+	 */
+	public static int register(NodeId id, Node node) {
+		if (size == nodes.length) {
+			nodes = Arrays.copyOf(nodes, size * 2);
+			ids = Arrays.copyOf(ids, size * 2);
+		}
+		int handle = size++;
+		nodes[handle] = node;
+		ids[handle] = id;
+		handles.put(id, handle);
+		return handle;
+	}
+
+	/**
+	 * forget all the registered nodes (e.g. before the ids are assigned for a new experiment)
+	 */
+	public static void clear() {
+		Arrays.fill(nodes, 0, size, null);
+		Arrays.fill(ids, 0, size, null);
+		size = 0;
+		handles.clear();
+	}
+
+	/**
+	 * @param handle
+	 *            int
+	 * @return the node with the given handle
+	 */
+	public static Node node(int handle) {
+		return nodes[handle];
+	}
+
+	/**
+	 * @param handle
+	 *            int
+	 * @return the id of the node with the given handle
+	 */
+	public static NodeId id(int handle) {
+		return ids[handle];
+	}
+
+	/**
+	 * @param id
+	 *            NodeId
+	 * @return the handle of the node owning the id, -1 if it has not been registered
+	 */
+	public static int handleOf(NodeId id) {
+		Integer handle = handles.get(id);
+		return handle == null ? -1 : handle;
+	}
+
+	/**
+	 * convert a list of ids to the compact list of their handles (null and unknown ids become -1)
+	 *
+	 * @param list
+	 *            NodeId[]
+	 * @return int[]
+	 */
+	public static int[] handlesOf(NodeId[] list) {
+		int[] res = new int[list.length];
+		for (int i = 0; i < list.length; i++) {
+			res[i] = list[i] == null ? -1 : handleOf(list[i]);
+		}
+		return res;
+	}
+
+	/**
+	 * convert a list of handles back to the ids of the nodes (-1 becomes null)
+	 *
+	 * @param list
+	 *            int[]
+	 * @return NodeId[]
+	 */
+	public static NodeId[] idsOf(int[] list) {
+		NodeId[] res = new NodeId[list.length];
+		for (int i = 0; i < list.length; i++) {
+			res[i] = list[i] < 0 ? null : ids[list[i]];
+		}
+		return res;
+	}
+
+	/**
+	 * return the node owning the id. If the node has not been registered, the network is scanned (the same as the old binary
+	 * and linear search) and the node is registered for the next lookups.
+	 *
+	 * @param id
+	 *            NodeId
+	 * @param kademliaid
+	 *            pid of the kademlia protocol
+	 * @return Node or null if no node has this id
+	 */
+	public static Node lookup(NodeId id, int kademliaid) {
+		if (id == null)
+			return null;
+
+		int handle = handleOf(id);
+		if (handle >= 0)
+			return nodes[handle];
+
+		for (int i = Network.size() - 1; i >= 0; i--) {
+			KademliaProtocol kad = (KademliaProtocol) Network.get(i).getProtocol(kademliaid);
+			if (id.equals(kad.nodeId)) {
+				kad.setHandle(register(id, Network.get(i)));
+				return Network.get(i);
+			}
+		}
+		return null;
+	}
+
+}
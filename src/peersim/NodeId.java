@@ -0,0 +1,199 @@
+package peersim;
+
+import java.math.BigInteger;
+
+/**
+ * Immutable fixed-width identifier used for node ids and for the keys routed through the kademlia overlay.<br>
+ * The value is kept as an unsigned number of at most {@link #MAX_BITS} bits in four primitive words (w0 is the most
+ * significant one), so that XOR distance, comparison and common prefix length can be computed without allocating
+ * intermediate objects as {@link BigInteger} does. Only the lowest {@link KademliaCommonConfig#BITS} bits are meaningful for
+ * the protocol.
+ *
+ * @version 1.0
+ */
+public final class NodeId implements Comparable<NodeId> {
+
+	/**
+	 * maximum length of an id supported by this representation (enough for SHA-1 and SHA-256 keys)
+	 */
+	public static final int MAX_BITS = 256;
+
+	/**
+	 * the id 0
+	 */
+	public static final NodeId ZERO = new NodeId(0, 0, 0, 0);
+
+	private static final BigInteger WORD_MASK = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+	// words of the id, from the most significant (w0) to the least significant (w3)
+	private final long w0;
+	private final long w1;
+	private final long w2;
+	private final long w3;
+
+	private NodeId(long w0, long w1, long w2, long w3) {
+		this.w0 = w0;
+		this.w1 = w1;
+		this.w2 = w2;
+		this.w3 = w3;
+	}
+
+	/**
+	 * convert a (non negative) BigInteger into a NodeId
+	 *
+	 * @param b
+	 *            BigInteger of at most MAX_BITS bits
+	 * @return NodeId, or null if b is null
+	 */
+	public static NodeId valueOf(BigInteger b) {
+		if (b == null)
+			return null;
+		if (b.signum() < 0 || b.bitLength() > MAX_BITS)
+			throw new IllegalArgumentException("id out of range: " + b);
+
+		return new NodeId(b.shiftRight(192).longValue(), b.shiftRight(128).and(WORD_MASK).longValue(),
+				b.shiftRight(64).and(WORD_MASK).longValue(), b.and(WORD_MASK).longValue());
+	}
+
+	/**
+	 * convert this id back to a BigInteger (e.g. to be used as a key of the storage or cache)
+	 *
+	 * @return BigInteger
+	 */
+	public BigInteger toBigInteger() {
+		byte[] bytes = new byte[33]; // leading zero byte keeps the number positive
+		putWord(bytes, 1, w0);
+		putWord(bytes, 9, w1);
+		putWord(bytes, 17, w2);
+		putWord(bytes, 25, w3);
+		return new BigInteger(bytes);
+	}
+
+	private static void putWord(byte[] bytes, int offset, long w) {
+		for (int i = 7; i >= 0; i--) {
+			bytes[offset + i] = (byte) w;
+			w >>>= 8;
+		}
+	}
+
+	/**
+	 * return the distance between this id and another one, which is defined as (this XOR other)
+	 *
+	 * @param other
+	 *            NodeId
+	 * @return NodeId
+	 */
+	public NodeId xor(NodeId other) {
+		return new NodeId(w0 ^ other.w0, w1 ^ other.w1, w2 ^ other.w2, w3 ^ other.w3);
+	}
+
+	/**
+	 * compare the distances of a and b from this id without materializing them, i.e. the sign of
+	 * (a XOR this).compareTo(b XOR this)
+	 *
+	 * @param a
+	 *            NodeId
+	 * @param b
+	 *            NodeId
+	 * @return a negative number, zero or a positive number if a is closer, as close as or farther than b
+	 */
+	public int compareDistance(NodeId a, NodeId b) {
+		if (a.w0 != b.w0)
+			return Long.compareUnsigned(a.w0 ^ w0, b.w0 ^ w0);
+		if (a.w1 != b.w1)
+			return Long.compareUnsigned(a.w1 ^ w1, b.w1 ^ w1);
+		if (a.w2 != b.w2)
+			return Long.compareUnsigned(a.w2 ^ w2, b.w2 ^ w2);
+		return Long.compareUnsigned(a.w3 ^ w3, b.w3 ^ w3);
+	}
+
+	/**
+	 * return the length of the common prefix of this id and the other one, i.e. how many bits (over the BITS long id) they
+	 * have in common from the leftmost side
+	 *
+	 * @param other
+	 *            NodeId
+	 * @return int between 0 and KademliaCommonConfig.BITS
+	 */
+	public int prefixLen(NodeId other) {
+		int lz;
+		long x;
+		if ((x = w0 ^ other.w0) != 0)
+			lz = Long.numberOfLeadingZeros(x);
+		else if ((x = w1 ^ other.w1) != 0)
+			lz = 64 + Long.numberOfLeadingZeros(x);
+		else if ((x = w2 ^ other.w2) != 0)
+			lz = 128 + Long.numberOfLeadingZeros(x);
+		else
+			lz = 192 + Long.numberOfLeadingZeros(w3 ^ other.w3);
+
+		int len = lz - (MAX_BITS - KademliaCommonConfig.BITS);
+		if (len < 0)
+			return 0;
+		return Math.min(len, KademliaCommonConfig.BITS);
+	}
+
+	/**
+	 * return true if the n-th bit (0 is the least significant one) is set
+	 *
+	 * @param n
+	 *            int
+	 * @return boolean
+	 */
+	public boolean testBit(int n) {
+		long w;
+		switch (n >>> 6) {
+		case 0:
+			w = w3;
+			break;
+		case 1:
+			w = w2;
+			break;
+		case 2:
+			w = w1;
+			break;
+		case 3:
+			w = w0;
+			break;
+		default:
+			return false;
+		}
+		return (w & (1L << (n & 63))) != 0;
+	}
+
+	@Override
+	public int compareTo(NodeId other) {
+		if (w0 != other.w0)
+			return Long.compareUnsigned(w0, other.w0);
+		if (w1 != other.w1)
+			return Long.compareUnsigned(w1, other.w1);
+		if (w2 != other.w2)
+			return Long.compareUnsigned(w2, other.w2);
+		return Long.compareUnsigned(w3, other.w3);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof NodeId))
+			return false;
+		NodeId other = (NodeId) obj;
+		return w3 == other.w3 && w2 == other.w2 && w1 == other.w1 && w0 == other.w0;
+	}
+
+	@Override
+	public int hashCode() {
+		// ids are uniformly distributed, so the low word is already a good hash
+		return (int) (w3 ^ (w3 >>> 32));
+	}
+
+	/**
+	 * print the id in base 10, the same as the BigInteger it represents
+	 */
+	@Override
+	public String toString() {
+		return toBigInteger().toString();
+	}
+
+}
@@ -0,0 +1,130 @@
+package peersim;
+
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link CachePolicy} keeping the posting lists of another policy in a {@link PostingArena} (CACHE_OFFHEAP).<br>
+ * A value is copied into the arena when it is cached and the policy holds its {@link PostingList} view, so lookups return the
+ * view without copying it: the view is only valid until the next operation that changes the cache, and throws
+ * IllegalStateException once its block is freed. A caller keeping a value, e.g. to send it or to store it with the search
+ * results, must keep a {@link PostingList#copy()}. The block of a list is freed once the entry leaves the cache, replaced or removed: the
+ * {@link CachePolicy.RemovalListener} still gets readable views, which are freed when it returns. A value that isn't a list of
+ * 8 hex digit ids stays on the heap.
+ *
+ * @version 1.0
+ */
+public class OffHeapCache implements CachePolicy {
+
+	private final CachePolicy policy;
+
+	private final PostingArena arena;
+
+	private RemovalListener listener = null;
+
+	// lists of the arena cached by the policy
+	private final HashMap<BigInteger, PostingList> lists = new HashMap<BigInteger, PostingList>();
+
+	/**
+	 * @param policy
+	 *            the cache holding the views
+	 * @param arena
+	 *            the arena of the lists, possibly shared by several caches
+	 */
+	public OffHeapCache(CachePolicy policy, PostingArena arena) {
+		this.policy = policy;
+		this.arena = arena;
+		policy.setRemovalListener(this::release);
+	}
+
+	/**
+	 * @return the view of the cached list in the arena, valid until the next change of the cache
+	 */
+	@Override
+	public Object get(BigInteger key) {
+		return policy.get(key);
+	}
+
+	@Override
+	public boolean set(BigInteger key, Object value) {
+		return put(key, value, 0, false);
+	}
+
+	@Override
+	public boolean set(BigInteger key, Object value, long ttl) {
+		return put(key, value, ttl, true);
+	}
+
+	private boolean put(BigInteger key, Object value, long ttl, boolean timed) {
+		PostingList list = value instanceof Collection ? arena.encode((Collection<?>) value) : null;
+		Object stored = list != null ? list : value;
+		// a value replaced by set isn't reported as removed
+		PostingList old = lists.remove(key);
+		boolean cached = timed ? policy.set(key, stored, ttl) : policy.set(key, stored);
+		if (old != null)
+			arena.free(old);
+		if (list != null) {
+			if (cached)
+				lists.put(key, list);
+			else
+				arena.free(list);
+		}
+		return cached;
+	}
+
+	@Override
+	public Object remove(BigInteger key) {
+		PostingList list = lists.get(key);
+		// the block is freed by the removal
+		Object copy = list != null ? list.copy() : null;
+		Object value = policy.remove(key);
+		return copy != null ? copy : value;
+	}
+
+	// free the blocks of the entries removed by the policy, once the listener has seen them
+	private void release(List<Removal> removals) {
+		if (listener != null)
+			listener.removed(removals);
+		for (Removal r : removals) {
+			if (r.value instanceof PostingList) {
+				if (lists.get(r.key) == r.value)
+					lists.remove(r.key);
+				arena.free((PostingList) r.value);
+			}
+		}
+	}
+
+	@Override
+	public int expire(long now) {
+		return policy.expire(now);
+	}
+
+	@Override
+	public boolean member(BigInteger key) {
+		return policy.member(key);
+	}
+
+	@Override
+	public void setRemovalListener(RemovalListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public Set<BigInteger> allKeys() {
+		return policy.allKeys();
+	}
+
+	@Override
+	public int getSize() {
+		return policy.getSize();
+	}
+
+	@Override
+	public long getWeight() {
+		return policy.getWeight();
+	}
+
+}
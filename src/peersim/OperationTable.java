@@ -0,0 +1,181 @@
+package peersim;
+
+import java.math.BigInteger;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.PriorityQueue;
+
+import peersim.core.CommonState;
+
+/**
+ * Table of the find operations issued by a node.<br>
+ * Every operation gets a deadline when it is issued; the operations still in the table after their deadline (lost messages,
+ * answers that never come) are swept away in simulated time whenever the table is used, so the table only holds the
+ * operations of the last {@link KademliaCommonConfig#OP_TIMEOUT} time units. The deadlines are kept in a priority queue,
+ * whose entries of the operations already removed are discarded when they reach the head.<br>
+ * A find value query abandoned or expired is counted as a failed query, with the time until it ended as its latency.<br>
+ * The number of operations completed, abandoned and expired, and the MSG_ROUTE and MSG_FINDVALUE requests sent and the
+ * highest parallelism reached by each of them, are reported to the {@link KademliaObserver}. The span of a traced operation
+ * is written when it leaves the table ({@link QueryTracer}).
+ *
+ * @version 1.0
+ */
+public class OperationTable {
+
+	private static final Comparator<FindOperation> BY_DEADLINE = new Comparator<FindOperation>() {
+		@Override
+		public int compare(FindOperation a, FindOperation b) {
+			return Long.compare(a.deadline, b.deadline);
+		}
+	};
+
+	// operations in the order they have been issued
+	private final LinkedHashMap<Long, FindOperation> ops = new LinkedHashMap<Long, FindOperation>();
+
+	private final PriorityQueue<FindOperation> deadlines = new PriorityQueue<FindOperation>(11, BY_DEADLINE);
+
+	// timers of the node, holding the deadline timers of the operations
+	private final TimerWheel timers;
+
+	/**
+	 * @param timers
+	 *            the timer wheel of the node, where the {@link FindOperation#deadlineTimer} of an operation is cancelled when
+	 *            it leaves the table
+	 */
+	public OperationTable(TimerWheel timers) {
+		this.timers = timers;
+	}
+
+	/**
+	 * add an operation, which expires after {@link KademliaCommonConfig#OP_TIMEOUT} time units
+	 *
+	 * @param fop
+	 *            FindOperation
+	 * @param now
+	 *            current simulated time
+	 */
+	public void put(FindOperation fop, long now) {
+		put(fop, now, KademliaCommonConfig.OP_TIMEOUT);
+	}
+
+	/**
+	 * add an operation, which expires after the given time
+	 *
+	 * @param fop
+	 *            FindOperation
+	 * @param now
+	 *            current simulated time
+	 * @param timeout
+	 *            time units after which the operation expires
+	 */
+	public void put(FindOperation fop, long now, long timeout) {
+		sweep(now);
+		fop.deadline = now + timeout;
+		ops.put(fop.operationId, fop);
+		deadlines.add(fop);
+	}
+
+	/**
+	 * @param operationId
+	 *            long
+	 * @param now
+	 *            current simulated time
+	 * @return the operation, null if it isn't in the table (completed, abandoned or expired)
+	 */
+	public FindOperation get(long operationId, long now) {
+		sweep(now);
+		return ops.get(operationId);
+	}
+
+	/**
+	 * remove an operation that got its result
+	 *
+	 * @param operationId
+	 *            long
+	 * @return the operation, null if it wasn't in the table
+	 */
+	public FindOperation complete(long operationId) {
+		FindOperation fop = ops.remove(operationId);
+		if (fop != null) {
+			KademliaObserver.opCompleted.add(1);
+			removed(fop, "completed");
+		}
+		return fop;
+	}
+
+	/**
+	 * remove an operation that can't get any result (e.g. there is no node left to query)
+	 *
+	 * @param operationId
+	 *            long
+	 * @return the operation, null if it wasn't in the table
+	 */
+	public FindOperation abandon(long operationId) {
+		FindOperation fop = ops.remove(operationId);
+		if (fop != null) {
+			KademliaObserver.opAbandoned.add(1);
+			queryFailed(fop, CommonState.getTime());
+			removed(fop, "abandoned");
+		}
+		return fop;
+	}
+
+	/**
+	 * remove the operations whose deadline has passed
+	 *
+	 * @param now
+	 *            current simulated time
+	 * @return number of operations expired
+	 */
+	public int sweep(long now) {
+		int expired = 0;
+		FindOperation fop;
+		while ((fop = deadlines.peek()) != null && fop.deadline <= now) {
+			deadlines.poll();
+			if (ops.get(fop.operationId) == fop) { // still pending
+				ops.remove(fop.operationId);
+				queryFailed(fop, fop.deadline);
+				removed(fop, "expired");
+				expired++;
+			}
+		}
+		if (expired > 0)
+			KademliaObserver.opExpired.add(expired);
+		return expired;
+	}
+
+	// a find value query that ends without its value has failed, the time until it ended is a latency sample too (the
+	// sub-queries of a conjunctive query are not queries of their own)
+	private void queryFailed(FindOperation fop, long end) {
+		if (fop.body instanceof BigInteger && fop.parent == null) {
+			KademliaObserver.findVal_fail.add(1);
+			KademliaObserver.queryMsgTime.add(end - fop.timestamp);
+		}
+	}
+
+	// statistics and trace of an operation removed from the table, whose deadline timer is no longer needed
+	private void removed(FindOperation fop, String outcome) {
+		if (fop.deadlineTimer != null) {
+			timers.cancel(fop.deadlineTimer);
+			fop.deadlineTimer = null;
+		}
+		KademliaObserver.routeMsgPerFind.add(fop.routeMessages);
+		KademliaObserver.peakAlphaPerFind.add(fop.peakAlpha);
+		if (fop.valueRequests > 0)
+			KademliaObserver.valueMsgPerFind.add(fop.valueRequests);
+		QueryTracer.end(fop, outcome);
+	}
+
+	/**
+	 * @return number of operations in the table
+	 */
+	public int size() {
+		return ops.size();
+	}
+
+	@Override
+	public String toString() {
+		return ops.toString();
+	}
+
+}
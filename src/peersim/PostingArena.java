@@ -0,0 +1,141 @@
+package peersim;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Off-heap storage of cached posting lists (CACHE_OFFHEAP): every list is kept as the sorted int encoding of its 8 hex digit
+ * document ids, 4 bytes per id, in a block of a direct {@link ByteBuffer} slab, out of the reach of the garbage
+ * collector.<br>
+ * The blocks hold a power of two of ids. They are carved out of {@link #SLAB_BYTES} slabs (a list too long for a slab gets a
+ * slab of its own) and a freed block goes to the free list of its size, where it is reused first. The slabs themselves are
+ * never released.
+ *
+ * @version 1.0
+ */
+public class PostingArena {
+
+	/**
+	 * size of a slab, in bytes
+	 */
+	public static final int SLAB_BYTES = 1 << 20;
+
+	private static final int CLASSES = 31;
+
+	private final ArrayList<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+
+	// slab the small blocks are carved from, and its first free byte
+	private int open = -1;
+
+	private int top = 0;
+
+	// free blocks of each size class, as slab index << 32 | offset
+	private final long[][] free = new long[CLASSES][];
+
+	private final int[] freeCount = new int[CLASSES];
+
+	// ids of the list being encoded
+	private int[] scratch = new int[64];
+
+	private long reserved = 0;
+
+	private long used = 0;
+
+	/**
+	 * copy a posting list into the arena
+	 *
+	 * @param ids
+	 *            the document ids
+	 * @return the view of the list in the arena, null if one of the ids isn't 8 hex digits (the list is left on the heap)
+	 */
+	public PostingList encode(Collection<?> ids) {
+		int n = ids.size();
+		if (scratch.length < n)
+			scratch = new int[Integer.highestOneBit(n) << 1];
+		if (ids instanceof PostingList) {
+			((PostingList) ids).ints().get(scratch, 0, n);
+		} else {
+			int i = 0;
+			for (Object id : ids) {
+				if (!(id instanceof String) || ((String) id).length() != 8)
+					return null;
+				long v = PostingList.parse((String) id);
+				if (v < 0)
+					return null;
+				scratch[i++] = (int) v;
+			}
+			Arrays.sort(scratch, 0, n);
+		}
+		int sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(1, n) - 1);
+		long address = allocate(sizeClass);
+		ByteBuffer block = slabs.get((int) (address >>> 32)).duplicate();
+		block.position((int) address);
+		block.limit((int) address + 4 * n);
+		IntBuffer view = block.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+		view.put(scratch, 0, n);
+		view.flip();
+		used += 4L << sizeClass;
+		return new PostingList(view, address, sizeClass);
+	}
+
+	/**
+	 * give the block of a list back to the arena; the list can't be read any more
+	 *
+	 * @param list
+	 *            a list returned by {@link #encode(Collection)}, freed at most once
+	 */
+	public void free(PostingList list) {
+		if (list.isFreed())
+			return;
+		int sizeClass = list.sizeClass;
+		list.release();
+		if (free[sizeClass] == null)
+			free[sizeClass] = new long[16];
+		else if (freeCount[sizeClass] == free[sizeClass].length)
+			free[sizeClass] = Arrays.copyOf(free[sizeClass], 2 * freeCount[sizeClass]);
+		free[sizeClass][freeCount[sizeClass]++] = list.address;
+		used -= 4L << sizeClass;
+	}
+
+	private long allocate(int sizeClass) {
+		if (freeCount[sizeClass] > 0)
+			return free[sizeClass][--freeCount[sizeClass]];
+		int bytes = 4 << sizeClass;
+		if (bytes > SLAB_BYTES) { // a slab of its own
+			slabs.add(slab(bytes));
+			return (long) (slabs.size() - 1) << 32;
+		}
+		if (open < 0 || top + bytes > SLAB_BYTES) { // the rest of the open slab is left unused
+			slabs.add(slab(SLAB_BYTES));
+			open = slabs.size() - 1;
+			top = 0;
+		}
+		long address = ((long) open << 32) | top;
+		top += bytes;
+		return address;
+	}
+
+	private ByteBuffer slab(int bytes) {
+		reserved += bytes;
+		return ByteBuffer.allocateDirect(bytes);
+	}
+
+	/**
+	 * @return bytes of direct memory taken by the slabs
+	 */
+	public long getReservedBytes() {
+		return reserved;
+	}
+
+	/**
+	 * @return bytes of the blocks holding a list
+	 */
+	public long getUsedBytes() {
+		return used;
+	}
+
+}
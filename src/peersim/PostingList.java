@@ -0,0 +1,139 @@
+package peersim;
+
+import java.nio.IntBuffer;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only view of a posting list stored as the sorted int encoding of its 8 hex digit document ids, either in a block of a
+ * {@link PostingArena} or, for a {@link #copy()}, in an int array on the heap.<br>
+ * The view reads the ids in place: the strings are only built while iterating, and {@link #contains(Object)} is a binary
+ * search. A view of the arena is valid until its block is freed, i.e. as long as the entry stays in the cache; afterwards it
+ * throws IllegalStateException. A value that leaves the node (see KademliaProtocol.sendValueFromCache) is a copy, 4 bytes
+ * per id.
+ *
+ * @version 1.0
+ */
+public class PostingList extends AbstractSet<String> {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private IntBuffer ids;
+
+	/**
+	 * block of the list in the arena, -1 on the heap
+	 */
+	final long address;
+
+	final int sizeClass;
+
+	PostingList(IntBuffer ids, long address, int sizeClass) {
+		this.ids = ids;
+		this.address = address;
+		this.sizeClass = sizeClass;
+	}
+
+	/**
+	 * @return the encoded ids, sorted, without copying them
+	 */
+	public IntBuffer ints() {
+		if (ids == null)
+			throw new IllegalStateException("posting list freed");
+		return ids.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return the list on the heap, independent of the arena
+	 */
+	public PostingList copy() {
+		int[] copy = new int[size()];
+		ints().get(copy);
+		return new PostingList(IntBuffer.wrap(copy), -1, 0);
+	}
+
+	@Override
+	public int size() {
+		if (ids == null)
+			throw new IllegalStateException("posting list freed");
+		return ids.limit();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof String) || ((String) o).length() != 8)
+			return false;
+		long id = parse((String) o);
+		if (id < 0)
+			return false;
+		int lo = 0, hi = size() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = Integer.compare(ids.get(mid), (int) id);
+			if (c < 0)
+				lo = mid + 1;
+			else if (c > 0)
+				hi = mid - 1;
+			else
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		final int n = size();
+		return new Iterator<String>() {
+
+			private int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return i < n;
+			}
+
+			@Override
+			public String next() {
+				if (i >= n)
+					throw new NoSuchElementException();
+				if (ids == null)
+					throw new IllegalStateException("posting list freed");
+				return format(ids.get(i++));
+			}
+		};
+	}
+
+	boolean isFreed() {
+		return ids == null;
+	}
+
+	void release() {
+		ids = null;
+	}
+
+	/**
+	 * @param id
+	 *            document id of 8 hex digits
+	 * @return its value, -1 if it isn't hex
+	 */
+	static long parse(String id) {
+		long v = 0;
+		for (int i = 0; i < id.length(); i++) {
+			int d = Character.digit(id.charAt(i), 16);
+			if (d < 0 || Character.isUpperCase(id.charAt(i)))
+				return -1;
+			v = v << 4 | d;
+		}
+		return v;
+	}
+
+	static String format(int id) {
+		char[] c = new char[8];
+		for (int i = 7; i >= 0; i--) {
+			c[i] = HEX[id & 0xf];
+			id >>>= 4;
+		}
+		return new String(c);
+	}
+
+}
@@ -0,0 +1,188 @@
+package peersim;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Trace of a single {@link FindOperation}, kept only for the sampled operations (see {@link QueryTracer}).<br>
+ * A span records every hop of the operation, i.e. every request answered or timed out, with the node that answered (its
+ * handle in the {@link NodeDirectory}) and the round trip time, and the times at which the lookup ended, the first value
+ * arrived and the results of a conjunctive query were joined. The hops are kept in parallel primitive arrays grown by
+ * doubling.
+ *
+ * @version 1.0
+ */
+public class QuerySpan {
+
+	/**
+	 * kinds of hop
+	 */
+	public static final byte HOP_RESPONSE = 0; // closest nodes returned to a MSG_ROUTE
+	public static final byte HOP_TIMEOUT = 1; // request not answered in time
+	public static final byte HOP_VALUE = 2; // value returned from the storage of a node
+	public static final byte HOP_NO_VALUE = 3; // the node asked for the value hasn't it
+	public static final byte HOP_CACHE_VALUE = 4; // value returned from the cache of a node
+
+	private static final String[] HOP_NAMES = { "response", "timeout", "value", "noValue", "cacheValue" };
+
+	/**
+	 * operation traced
+	 */
+	public final long operationId;
+
+	/**
+	 * handle of the node that issued the operation
+	 */
+	public final int origin;
+
+	/**
+	 * time the query has been issued (the lookup of a sub-query of a conjunctive query starts with the query)
+	 */
+	public final long start;
+
+	/**
+	 * time the lookup has been completed, -1 if it hasn't (e.g. a cache hit during the lookup)
+	 */
+	public long lookupEnd = -1;
+
+	/**
+	 * time the first value arrived, -1 if none
+	 */
+	public long valueAt = -1;
+
+	/**
+	 * time the results of the sub-queries of a conjunctive query have been joined, -1 if not joined
+	 */
+	public long joinedAt = -1;
+
+	/**
+	 * true if the value came from the cache of a node
+	 */
+	public boolean cacheHit = false;
+
+	/**
+	 * how the operation left the table of the issued operations ("completed", "abandoned" or "expired"), null while pending
+	 */
+	public String outcome = null;
+
+	/**
+	 * time the operation left the table of the issued operations
+	 */
+	public long end = -1;
+
+	private final Object key;
+
+	private final String kind;
+
+	private int hops = 0;
+
+	private long[] times = new long[8];
+
+	private int[] nodes = new int[8];
+
+	private long[] rtts = new long[8];
+
+	private byte[] kinds = new byte[8];
+
+	/**
+	 * @param fop
+	 *            FindOperation traced
+	 * @param origin
+	 *            handle of the node that issued it
+	 */
+	public QuerySpan(FindOperation fop, int origin) {
+		this.operationId = fop.operationId;
+		this.origin = origin;
+		this.start = fop.timestamp;
+		this.key = fop.body instanceof StoreFile ? ((StoreFile) fop.body).getKey() : fop.destNode;
+		if (fop.body instanceof StoreFile)
+			this.kind = "store";
+		else if (fop.body instanceof BigInteger)
+			this.kind = fop.parent != null ? "findValuePart" : "findValue";
+		else
+			this.kind = "findNode";
+	}
+
+	/**
+	 * record a hop
+	 *
+	 * @param time
+	 *            current simulated time
+	 * @param node
+	 *            handle of the node, -1 if unknown
+	 * @param kind
+	 *            one of the HOP_ constants
+	 * @param rtt
+	 *            round trip time of the request, -1 if not known
+	 */
+	public void hop(long time, int node, byte kind, long rtt) {
+		if (hops == times.length) {
+			int n = hops * 2;
+			times = Arrays.copyOf(times, n);
+			nodes = Arrays.copyOf(nodes, n);
+			rtts = Arrays.copyOf(rtts, n);
+			kinds = Arrays.copyOf(kinds, n);
+		}
+		times[hops] = time;
+		nodes[hops] = node;
+		rtts[hops] = rtt;
+		kinds[hops] = kind;
+		hops++;
+		if ((kind == HOP_VALUE || kind == HOP_CACHE_VALUE) && valueAt < 0) {
+			valueAt = time;
+			cacheHit = kind == HOP_CACHE_VALUE;
+		}
+	}
+
+	/**
+	 * @return number of hops recorded
+	 */
+	public int hops() {
+		return hops;
+	}
+
+	/**
+	 * the span as a line of JSON. The times are split in routing (issue to end of the lookup), value fetch (end of the
+	 * lookup, or issue if the value came during the lookup, to the first value) and intersection (first value to the join of a
+	 * conjunctive query); a phase that didn't happen is -1.
+	 *
+	 * @return String
+	 */
+	public String toJson() {
+		long routing = lookupEnd >= 0 ? lookupEnd - start : (valueAt >= 0 ? valueAt - start : end - start);
+		long fetch = valueAt >= 0 ? valueAt - (lookupEnd >= 0 ? lookupEnd : valueAt) : -1;
+		long intersection = joinedAt >= 0 && valueAt >= 0 ? joinedAt - valueAt : -1;
+
+		StringBuilder sb = new StringBuilder(128 + hops * 48);
+		sb.append("{\"op\":").append(operationId);
+		sb.append(",\"kind\":\"").append(kind).append('"');
+		sb.append(",\"key\":\"").append(key).append('"');
+		sb.append(",\"origin\":").append(origin);
+		sb.append(",\"start\":").append(start);
+		sb.append(",\"end\":").append(end);
+		sb.append(",\"outcome\":\"").append(outcome).append('"');
+		sb.append(",\"value\":").append(valueAt >= 0);
+		sb.append(",\"cacheHit\":").append(cacheHit);
+		sb.append(",\"routing\":").append(routing);
+		sb.append(",\"fetch\":").append(fetch);
+		sb.append(",\"intersection\":").append(intersection);
+		sb.append(",\"hops\":[");
+		for (int i = 0; i < hops; i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append("{\"t\":").append(times[i]);
+			sb.append(",\"node\":").append(nodes[i]);
+			sb.append(",\"type\":\"").append(HOP_NAMES[kinds[i]]).append('"');
+			if (rtts[i] >= 0)
+				sb.append(",\"rtt\":").append(rtts[i]);
+			sb.append('}');
+		}
+		return sb.append("]}").toString();
+	}
+
+	@Override
+	public String toString() {
+		return "QuerySpan [operationId=" + operationId + ", origin=" + origin + ", hops=" + hops + "]";
+	}
+
+}
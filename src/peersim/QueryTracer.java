@@ -0,0 +1,147 @@
+package peersim;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import peersim.core.CommonState;
+
+/**
+ * Opt-in tracing of the find operations: a {@link QuerySpan} is kept for a sample of the operations and written as a line of
+ * JSON (NDJSON) to {@link KademliaCommonConfig#TRACE_FILE} when the operation leaves the table of the issued operations.<br>
+ * An operation is sampled by hashing its id (the sub-queries of a conjunctive query by hashing the query), so the choice is
+ * deterministic and doesn't draw from the simulator random generator. The operations not sampled have no span, and tracing
+ * costs them a multiplication when they are issued and a null check at every hop.<br>
+ * The span of a sub-query is held back until the results of the query are joined (or the run ends), to record the
+ * intersection time.
+ *
+ * @version 1.0
+ */
+public class QueryTracer {
+
+	private static BufferedWriter out = null;
+
+	private static boolean hooked = false;
+
+	// spans of sub-queries waiting for the join of their query
+	private static final HashMap<BigInteger, ArrayList<QuerySpan>> pending = new HashMap<BigInteger, ArrayList<QuerySpan>>();
+
+	/**
+	 * number of spans written
+	 */
+	public static long written = 0;
+
+	/**
+	 * @param id
+	 *            id of the operation (or hash of the query)
+	 * @return true if the operation is traced
+	 */
+	public static boolean sampled(long id) {
+		double rate = KademliaCommonConfig.TRACE_SAMPLE;
+		if (rate <= 0)
+			return false;
+		if (rate >= 1)
+			return true;
+		// fibonacci hashing spreads the sequential ids, the top 53 bits are uniform in [0, 1)
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (h >>> 11) * 0x1.0p-53 < rate;
+	}
+
+	/**
+	 * start the span of an operation just issued, if it is sampled
+	 *
+	 * @param fop
+	 *            FindOperation
+	 * @param origin
+	 *            handle of the node that issued it
+	 */
+	public static void start(FindOperation fop, int origin) {
+		long id = fop.parent != null ? fop.parent.longValue() : fop.operationId;
+		if (sampled(id)) {
+			fop.span = new QuerySpan(fop, origin);
+			if (!hooked) { // flush the sink when the simulation is over
+				Runtime.getRuntime().addShutdownHook(new Thread(QueryTracer::close));
+				hooked = true;
+			}
+		}
+	}
+
+	/**
+	 * the operation left the table of the issued operations: write its span
+	 *
+	 * @param fop
+	 *            FindOperation
+	 * @param outcome
+	 *            "completed", "abandoned" or "expired"
+	 */
+	public static void end(FindOperation fop, String outcome) {
+		QuerySpan span = fop.span;
+		if (span == null)
+			return;
+		fop.span = null;
+		span.outcome = outcome;
+		span.end = CommonState.getTime();
+		if (fop.parent != null && span.valueAt >= 0) { // wait for the join
+			ArrayList<QuerySpan> spans = pending.get(fop.parent);
+			if (spans == null) {
+				spans = new ArrayList<QuerySpan>();
+				pending.put(fop.parent, spans);
+			}
+			spans.add(span);
+			return;
+		}
+		write(span.toJson());
+	}
+
+	/**
+	 * the results of the sub-queries of a conjunctive query have been joined: write their spans
+	 *
+	 * @param parent
+	 *            hash of the query
+	 */
+	public static void joined(BigInteger parent) {
+		ArrayList<QuerySpan> spans = pending.remove(parent);
+		if (spans == null)
+			return;
+		long now = CommonState.getTime();
+		for (QuerySpan span : spans) {
+			span.joinedAt = now;
+			write(span.toJson());
+		}
+	}
+
+	private static void write(String line) {
+		try {
+			if (out == null)
+				out = new BufferedWriter(new FileWriter(KademliaCommonConfig.TRACE_FILE), 1 << 16);
+			out.write(line);
+			out.newLine();
+			written++;
+		} catch (IOException e) {
+			System.err.println(e);
+		}
+	}
+
+	/**
+	 * write the spans still waiting for a join and flush the sink
+	 */
+	public static synchronized void close() {
+		for (ArrayList<QuerySpan> spans : pending.values()) {
+			for (QuerySpan span : spans) {
+				write(span.toJson());
+			}
+		}
+		pending.clear();
+		if (out != null) {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				System.err.println(e);
+			}
+		}
+	}
+
+}
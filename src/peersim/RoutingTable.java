@@ -1,9 +1,6 @@
 package peersim;
 
-import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.BitSet;
 
 /**
  * Gives an implementation for the rounting table component of a kademlia node
@@ -14,46 +11,57 @@ import java.util.TreeMap;
 public class RoutingTable implements Cloneable {
 
 	// node ID of the node
-	public BigInteger nodeId = null;
+	public NodeId nodeId = null;
 
-	// k-buckets
-	public TreeMap<Integer, KBucket> k_buckets = null;
+	// k-buckets, indexed by prefix length. A k-bucket is allocated only when the first neighbour is added to it (for N nodes
+	// only about log2(N) of them are ever used)
+	public KBucket[] k_buckets = null;
+
+	// occupancy bitmap of the k-buckets: bit i is set when the k-bucket i is not empty
+	private BitSet occupied = new BitSet();
 
 	// ______________________________________________________________________________________________
 	/**
 	 * instanciates a new empty routing table with the specified size
 	 */
 	public RoutingTable() {
-		k_buckets = new TreeMap<Integer, KBucket>();
-		// initialize k-bukets
-		for (int i = 0; i <= KademliaCommonConfig.BITS; i++) {
-			k_buckets.put(i, new KBucket());
-		}
+		k_buckets = new KBucket[KademliaCommonConfig.BITS + 1];
 	}
 
 	/**
 	 *  add a neighbour to the correct k-bucket
 	 * @param node
 	 */
-	public void addNeighbour(BigInteger node) {
+	public void addNeighbour(NodeId node) {
 		// get the length of the longest common prefix (correspond to the correct k-bucket)
 		//找到某节点（参数）与本节点之间的最长前缀长度，也就是k-bucket的编号
-		int prefix_len = Util.prefixLen(nodeId, node);
+		int prefix_len = Util.bucketIndex(nodeId, node);
 
 		// add the node to the k-bucket 将节点加入对应的k-bucket
-		k_buckets.get(prefix_len).addNeighbour(node);
+		KBucket bucket = k_buckets[prefix_len];
+		if (bucket == null) {
+			bucket = k_buckets[prefix_len] = new KBucket();
+		}
+		bucket.addNeighbour(node);
+		if (!bucket.isEmpty())
+			occupied.set(prefix_len);
 	}
 
 	/**
 	 * remove a neighbour from the correct k-bucket
 	 * @param node
 	 */
-	public void removeNeighbour(BigInteger node) {
+	public void removeNeighbour(NodeId node) {
 		// get the lenght of the longest common prefix (correspond to the correct k-bucket)
-		int prefix_len = Util.prefixLen(nodeId, node);
-
-		// add the node to the k-bucket
-		k_buckets.get(prefix_len).removeNeighbour(node);
+		int prefix_len = Util.bucketIndex(nodeId, node);
+
+		// remove the node from the k-bucket
+		KBucket bucket = k_buckets[prefix_len];
+		if (bucket == null)
+			return;
+		bucket.removeNeighbour(node);
+		if (bucket.isEmpty())
+			occupied.clear(prefix_len);
 	}
 
 	/**
@@ -65,60 +73,9 @@ public class RoutingTable implements Cloneable {
 	 * @return
 	 * 			List of K closest nodeIds from the correct k-bucket
 	 */
-	public BigInteger[] getNeighbours(final BigInteger key, final BigInteger src) {
-		// resulting neighbors
-		BigInteger[] result = new BigInteger[KademliaCommonConfig.K];
-
-		// Neighbor candidates
-		ArrayList<BigInteger> neighbour_candidates = new ArrayList<BigInteger>();
-
-		// get the length of the longest common prefix
-		//Calculate the common prefix length of the target node and the current node to determine which bucket is located in the kbuckets
-		int prefix_len = Util.prefixLen(nodeId, key);//计算目标节点与当前节点的共同前缀长确定kbuckets中位于哪个桶中
-
-		// return the k-bucket if is full
-		if (k_buckets.get(prefix_len).neighbours.size() >= KademliaCommonConfig.K) { // If the size of the bucket in kbuckets is full
-			return k_buckets.get(prefix_len).neighbours.keySet().toArray(result);// Return the entire kbucket to src
-		}
-
-		// else get k closest node from all k-buckets
-		
-		//prefix_len = 0;
-		/*
-		 while (prefix_len < KademliaCommonConfig.ALPHA) {  // commonConfig.BITS is more correct.
-			neighbour_candidates.addAll(k_buckets.get(prefix_len).neighbours.keySet());
-			// remove source id
-			neighbour_candidates.remove(src);
-			prefix_len++;
-		}
-		 */
-		/* it maybe better to start at k-th closest bucket and onward instead taking all of the nodes
-		 * in this case start at prefix_len th bucket
-		 */
-		for (Map.Entry<Integer, KBucket> entry : k_buckets.entrySet()) { // prev solution was until ALPHA but why? it should be all of the nodes in all buckets
-			neighbour_candidates.addAll(entry.getValue().neighbours.keySet());
-			// remove source id
-			//prefix_len++;
-		}
-		neighbour_candidates.remove(src);
-		// create a map (distance, node)
-		TreeMap<BigInteger, BigInteger> distance_map = new TreeMap<BigInteger, BigInteger>();
-
-		for (BigInteger node : neighbour_candidates) {// Sort candidate list nodes based on distance
-			distance_map.put(Util.distance(node, key), node);
-		}
-
-		int i = 0;
-		for (BigInteger iii : distance_map.keySet()) {// Select the nearest k nodes to return
-			if (i < KademliaCommonConfig.K) {
-				result[i] = distance_map.get(iii);
-				i++;
-			}else {
-				break; //stop looping through the rest of the candidate neighbors
-			}
-		}
-
-		return result;
+	public NodeId[] getNeighbours(final NodeId key, final NodeId src) {
+		// when the k-bucket of the key is full it is returned as a whole, since its nodes are the closest ones (see closestNeighbours)
+		return closestNeighbours(key, src);
 	}
 
 	////// special and temporary method
@@ -132,48 +89,112 @@ public class RoutingTable implements Cloneable {
 	 * @return
 	 * 			List of K closest nodeIds from the correct k-bucket
 	 */
-	public BigInteger[] getNeighbours2(final BigInteger key, final BigInteger src) {
-		// resulting neighbors
-		BigInteger[] result = new BigInteger[KademliaCommonConfig.K];
-
-		// Neighbor candidates
-		ArrayList<BigInteger> neighbour_candidates = new ArrayList<BigInteger>();
-
-		
-		// get k closest node from all k-buckets
-		//int prefix_len = 0;
-		for (Map.Entry<Integer, KBucket> entry : k_buckets.entrySet()) { // prev solution was until ALPHA but why? it should be all of the nodes in all buckets
-			neighbour_candidates.addAll(entry.getValue().neighbours.keySet());
-			// remove source id
-			
-			//prefix_len++;
-		}
-		neighbour_candidates.remove(src);
-		// create a map (distance, node)
-		TreeMap<BigInteger, BigInteger> distance_map = new TreeMap<BigInteger, BigInteger>();
+	public NodeId[] getNeighbours2(final NodeId key, final NodeId src) {
+		// buckets of the supernode hold more than K nodes, the bounded selection keeps only the K closest of them
+		return closestNeighbours(key, src);
+	}
 
-		for (BigInteger node : neighbour_candidates) {// Sort candidate list nodes based on distance
-			distance_map.put(Util.distance(node, key), node);
+	/**
+	 * find the K closest neighbours to 'key' (excluding 'src'), sorted by distance, by visiting the buckets from the closest to the
+	 * farthest and stopping as soon as the K closest are known. <br>
+	 * With p = prefixLen(nodeId, key), the distance of the nodes of bucket i from the key is:
+	 * <ul>
+	 * <li>i = p: less than 2^(BITS-p-1), they are the closest nodes</li>
+	 * <li>i &gt; p: in [2^(BITS-p-1), 2^(BITS-p)), all these buckets are in the same band</li>
+	 * <li>i &lt; p: in [2^(BITS-i-1), 2^(BITS-i)), every bucket is a band, farther as i decreases</li>
+	 * </ul>
+	 * every band is farther than the previous one, so once K candidates are collected at the end of a band the search is over. The
+	 * candidates are kept in a max-heap of size K and empty buckets are skipped using the occupancy bitmap.
+	 * 
+	 * @param key
+	 *            NodeId
+	 * @param src
+	 *            NodeId to exclude from the result
+	 * @return array of K elements, padded with null if not enough neighbours are known
+	 */
+	private NodeId[] closestNeighbours(final NodeId key, final NodeId src) {
+		NodeId[] heap = new NodeId[KademliaCommonConfig.K];
+		int size = 0;
+
+		int prefix_len = Util.bucketIndex(nodeId, key);
+		if (occupied.get(prefix_len)) {
+			size = collect(k_buckets[prefix_len], key, src, heap, size);
 		}
 
-		int i = 0;
-		for (BigInteger iii : distance_map.keySet()) {// Select the nearest k nodes to return
-			if (i < KademliaCommonConfig.K) {
-				result[i] = distance_map.get(iii);
-				i++;
+		if (size < heap.length) {
+			// the deeper buckets are all in the same band
+			for (int i = occupied.nextSetBit(prefix_len + 1); i >= 0; i = occupied.nextSetBit(i + 1)) {
+				size = collect(k_buckets[i], key, src, heap, size);
+			}
+			// then one band for each shallower bucket
+			for (int i = occupied.previousSetBit(prefix_len - 1); i >= 0 && size < heap.length; i = occupied.previousSetBit(i - 1)) {
+				size = collect(k_buckets[i], key, src, heap, size);
 			}
 		}
 
+		// empty the heap (farthest first) to obtain the candidates sorted by distance
+		NodeId[] result = new NodeId[KademliaCommonConfig.K];
+		while (size > 0) {
+			result[--size] = heap[0];
+			heap[0] = heap[size];
+			heap[size] = null;
+			siftDown(heap, size, key);
+		}
 		return result;
 	}
+
+	/**
+	 * offer the nodes of a k-bucket to the bounded max-heap of the closest candidates
+	 * 
+	 * @return the new size of the heap
+	 */
+	private static int collect(KBucket bucket, NodeId key, NodeId src, NodeId[] heap, int size) {
+		for (int n = 0; n < bucket.size; n++) {
+			NodeId node = bucket.neighbours[n];
+			if (node.equals(src))
+				continue;
+			if (size < heap.length) {
+				// sift up
+				int i = size++;
+				while (i > 0) {
+					int parent = (i - 1) >>> 1;
+					if (key.compareDistance(heap[parent], node) >= 0)
+						break;
+					heap[i] = heap[parent];
+					i = parent;
+				}
+				heap[i] = node;
+			} else if (size > 0 && key.compareDistance(node, heap[0]) < 0) {
+				// closer than the farthest candidate: replace it
+				heap[0] = node;
+				siftDown(heap, size, key);
+			}
+		}
+		return size;
+	}
+
+	private static void siftDown(NodeId[] heap, int size, NodeId key) {
+		int i = 0;
+		NodeId node = heap[0];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && key.compareDistance(heap[child + 1], heap[child]) > 0)
+				child++;
+			if (key.compareDistance(node, heap[child]) >= 0)
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		if (size > 0)
+			heap[i] = node;
+	}
 ///////////
 	// ______________________________________________________________________________________________
 	public Object clone() {
-		RoutingTable dolly = new RoutingTable();
-		for (int i = 0; i < KademliaCommonConfig.BITS; i++) {
-			k_buckets.put(i, new KBucket());// (KBucket) k_buckets.get(i).clone());
-		}
-		return dolly;
+		// the k-buckets are allocated on first use, so the copy starts empty
+		return new RoutingTable();
 	}
 
 	// ______________________________________________________________________________________________
@@ -183,7 +204,11 @@ public class RoutingTable implements Cloneable {
 	 * @return String
 	 */
 	public String toString() {
-		return k_buckets.toString();
+		String res = "{";
+		for (int i = occupied.nextSetBit(0); i >= 0; i = occupied.nextSetBit(i + 1)) {
+			res += (res.length() > 1 ? ", " : "") + i + "=" + k_buckets[i];
+		}
+		return res + "}";
 	}
 	// ______________________________________________________________________________________________
 
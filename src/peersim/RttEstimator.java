@@ -0,0 +1,111 @@
+package peersim;
+
+import java.util.Arrays;
+
+/**
+ * Estimator of the round trip time observed by a node between a request and its response.<br>
+ * The smoothed RTT is an exponentially weighted moving average of the samples (gain 1/8) and the RTT variation a moving
+ * average of their deviation from it (gain 1/4), as in the Jacobson/Karels algorithm of TCP. The retransmission timeout is
+ * SRTT + max(G, 4*RTTVAR), where G is the resolution of the timers. It isn't backed off at every timeout as in TCP: a
+ * request that times out is never retransmitted, and its contact is most likely gone rather than slow. The last
+ * {@link #WINDOW} samples are also kept to estimate the percentiles of the RTT; the sorted copy they are read from is
+ * refreshed every {@link #WINDOW}/8 samples.
+ *
+ * @version 1.0
+ */
+public class RttEstimator {
+
+	/**
+	 * number of recent samples the percentiles are estimated on
+	 */
+	public static final int WINDOW = 128;
+
+	// smoothed round trip time, -1 until the first sample
+	private long srtt = -1;
+
+	// round trip time variation
+	private long rttvar = 0;
+
+	// number of samples
+	private long samples = 0;
+
+	// last samples, in a ring
+	private final long[] window = new long[WINDOW];
+
+	// sorted copy of the window, and number of samples when it was taken
+	private long[] sorted = null;
+	private long sortedAt = 0;
+
+	/**
+	 * add the round trip time of a request that has been answered
+	 *
+	 * @param rtt
+	 *            long
+	 */
+	public void sample(long rtt) {
+		if (srtt < 0) {
+			srtt = rtt;
+			rttvar = rtt / 2;
+		} else {
+			rttvar += (Math.abs(srtt - rtt) - rttvar) / 4;
+			srtt += (rtt - srtt) / 8;
+		}
+		window[(int) (samples % WINDOW)] = rtt;
+		samples++;
+	}
+
+	/**
+	 * @return the smoothed round trip time, -1 if no request has been answered yet
+	 */
+	public long srtt() {
+		return srtt;
+	}
+
+	/**
+	 * @return the round trip time variation, -1 if no request has been answered yet
+	 */
+	public long rttvar() {
+		return srtt < 0 ? -1 : rttvar;
+	}
+
+	/**
+	 * @param granularity
+	 *            resolution of the timers, lower bound of the variation term
+	 * @return the timeout of a request, -1 if no request has been answered yet
+	 */
+	public long rto(long granularity) {
+		if (srtt < 0)
+			return -1;
+		return srtt + Math.max(granularity, 4 * rttvar);
+	}
+
+	/**
+	 * @param p
+	 *            percentile, in (0, 100]
+	 * @return the RTT below which p percent of the recent samples are, -1 if no request has been answered yet
+	 */
+	public long percentile(double p) {
+		if (samples == 0)
+			return -1;
+		if (sorted == null || samples - sortedAt >= WINDOW / 8) {
+			sorted = Arrays.copyOf(window, (int) Math.min(samples, WINDOW));
+			Arrays.sort(sorted);
+			sortedAt = samples;
+		}
+		int i = (int) Math.ceil(p / 100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+	}
+
+	/**
+	 * @return number of samples
+	 */
+	public long samples() {
+		return samples;
+	}
+
+	@Override
+	public String toString() {
+		return "RttEstimator [srtt=" + srtt + ", rttvar=" + rttvar + ", samples=" + samples + "]";
+	}
+
+}
@@ -0,0 +1,259 @@
+package peersim;
+
+import java.util.Arrays;
+
+/**
+ * Closest set of a find operation: the (at most) K closest nodes to the target found so far, sorted by distance.<br>
+ * Nodes are kept in a fixed capacity array in ascending XOR distance from the target, with their handle in the
+ * {@link NodeDirectory} (-1 if not known) and two bitmasks of the nodes already queried and of those that have answered. A node
+ * is found or inserted by binary search (distances are distinct since ids are), and the closest node not queried yet is the
+ * first clear bit of the queried mask.
+ *
+ * @version 1.0
+ */
+public class Shortlist {
+
+	// the nodes are sorted by their distance from this id
+	private final NodeId target;
+
+	private final NodeId[] ids;
+
+	private final int[] handles;
+
+	// bit i is set when the node in position i has been queried
+	private final long[] queried;
+
+	// bit i is set when the node in position i has answered
+	private final long[] responded;
+
+	private int size = 0;
+
+	/**
+	 * @param target
+	 *            NodeId the nodes are close to
+	 * @param capacity
+	 *            maximum number of nodes kept
+	 */
+	public Shortlist(NodeId target, int capacity) {
+		this.target = target;
+		this.ids = new NodeId[capacity];
+		this.handles = new int[capacity];
+		this.queried = new long[(capacity + 63) >>> 6];
+		this.responded = new long[queried.length];
+	}
+
+	/**
+	 * add a node, if it is closer than the farthest one of a full list (which is dropped)
+	 *
+	 * @param id
+	 *            NodeId
+	 * @param handle
+	 *            handle of the node, -1 if unknown
+	 * @return true if the node has been added
+	 */
+	public boolean add(NodeId id, int handle) {
+		int i = search(id);
+		if (i >= 0) { // already known, maybe without its handle
+			if (handles[i] < 0)
+				handles[i] = handle;
+			return false;
+		}
+		i = -i - 1;
+		if (i == ids.length) // farther than all of a full list
+			return false;
+
+		int last = Math.min(size, ids.length - 1);
+		System.arraycopy(ids, i, ids, i + 1, last - i);
+		System.arraycopy(handles, i, handles, i + 1, last - i);
+		shiftBits(queried, i, true);
+		shiftBits(responded, i, true);
+		ids[i] = id;
+		handles[i] = handle;
+		if (size < ids.length)
+			size++;
+		clearFrom(queried, size);
+		clearFrom(responded, size);
+		return true;
+	}
+
+	/**
+	 * remove a node (e.g. because it didn't answer)
+	 *
+	 * @param id
+	 *            NodeId
+	 * @return true if the node was in the list
+	 */
+	public boolean remove(NodeId id) {
+		int i = search(id);
+		if (i < 0)
+			return false;
+		System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+		System.arraycopy(handles, i + 1, handles, i, size - i - 1);
+		shiftBits(queried, i, false);
+		shiftBits(responded, i, false);
+		ids[--size] = null;
+		return true;
+	}
+
+	/**
+	 * @param id
+	 *            NodeId
+	 * @return true if the node is in the list
+	 */
+	public boolean contains(NodeId id) {
+		return search(id) >= 0;
+	}
+
+	/**
+	 * @param id
+	 *            NodeId
+	 * @return the handle of the node, -1 if it isn't in the list or its handle is unknown
+	 */
+	public int handleOf(NodeId id) {
+		int i = search(id);
+		return i < 0 ? -1 : handles[i];
+	}
+
+	/**
+	 * @return position of the closest node not queried yet, -1 if all of them have been queried
+	 */
+	public int nextUnqueried() {
+		for (int w = 0; w < queried.length; w++) {
+			long free = ~queried[w];
+			if (free != 0) {
+				int i = (w << 6) + Long.numberOfTrailingZeros(free);
+				return i < size ? i : -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * mark the node in position i as queried
+	 */
+	public void setQueried(int i) {
+		queried[i >>> 6] |= 1L << i;
+	}
+
+	public boolean isQueried(int i) {
+		return (queried[i >>> 6] & (1L << i)) != 0;
+	}
+
+	/**
+	 * mark a node as answered
+	 *
+	 * @param id
+	 *            NodeId
+	 * @return true if the node is in the list
+	 */
+	public boolean setResponded(NodeId id) {
+		int i = search(id);
+		if (i < 0)
+			return false;
+		responded[i >>> 6] |= 1L << i;
+		return true;
+	}
+
+	public boolean isResponded(int i) {
+		return (responded[i >>> 6] & (1L << i)) != 0;
+	}
+
+	/**
+	 * @return true if the list is not empty and all of its nodes have answered
+	 */
+	public boolean allResponded() {
+		if (size == 0)
+			return false;
+		int full = size >>> 6;
+		for (int w = 0; w < full; w++) {
+			if (responded[w] != -1L)
+				return false;
+		}
+		int rest = size & 63;
+		return rest == 0 || (responded[full] & ((1L << rest) - 1)) == ((1L << rest) - 1);
+	}
+
+	/**
+	 * @return the node in position i (0 is the closest one)
+	 */
+	public NodeId get(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * @return the handle of the node in position i, -1 if unknown
+	 */
+	public int handle(int i) {
+		return handles[i];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// position of the node, or (-(insertion point) - 1) if not present
+	private int search(NodeId id) {
+		int lo = 0;
+		int hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = target.compareDistance(ids[mid], id);
+			if (c < 0)
+				lo = mid + 1;
+			else if (c > 0)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -(lo + 1);
+	}
+
+	// insert a clear bit at position i (shifting the following ones up) or delete the bit at position i (shifting them down)
+	private static void shiftBits(long[] mask, int i, boolean insert) {
+		int w = i >>> 6;
+		long low = (1L << i) - 1; // bits of word w below i (shift is mod 64)
+		if (insert) {
+			long carry = mask[w] >>> 63;
+			mask[w] = (mask[w] & low) | ((mask[w] & ~low) << 1);
+			for (int k = w + 1; k < mask.length; k++) {
+				long next = mask[k] >>> 63;
+				mask[k] = (mask[k] << 1) | carry;
+				carry = next;
+			}
+		} else {
+			mask[w] = (mask[w] & low) | ((mask[w] >>> 1) & ~low);
+			for (int k = w + 1; k < mask.length; k++) {
+				mask[k - 1] |= (mask[k] & 1L) << 63;
+				mask[k] >>>= 1;
+			}
+		}
+	}
+
+	// clear the bits from position n on (nodes dropped from a full list)
+	private static void clearFrom(long[] mask, int n) {
+		int w = n >>> 6;
+		if (w >= mask.length)
+			return;
+		mask[w] &= (1L << n) - 1; // 0 when n is the first bit of the word
+		for (int k = w + 1; k < mask.length; k++) {
+			mask[k] = 0;
+		}
+	}
+
+	@Override
+	public String toString() {
+		String res = "{";
+		for (int i = 0; i < size; i++) {
+			res += (i > 0 ? ", " : "") + ids[i] + "=" + isQueried(i);
+		}
+		return res + "}";
+	}
+
+	/**
+	 * @return the nodes of the list, from the closest one
+	 */
+	public NodeId[] toArray() {
+		return Arrays.copyOf(ids, size);
+	}
+
+}
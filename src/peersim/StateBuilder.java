@@ -57,7 +57,7 @@ public class StateBuilder implements peersim.core.Control {
 				Node n2 = (Node) o2;
 				KademliaProtocol p1 = (KademliaProtocol) (n1.getProtocol(kademliaid));
 				KademliaProtocol p2 = (KademliaProtocol) (n2.getProtocol(kademliaid));
-				return Util.put0(p1.nodeId).compareTo(Util.put0(p2.nodeId));
+				return p1.nodeId.compareTo(p2.nodeId);
 			}
 
 		});
@@ -59,7 +59,7 @@ public class StoreMessageGenerator implements Control {
 	/**
 	 * number of overloaded nodes (i.e. remaining storage = 0)
 	 */
-	public static Set<BigInteger> overLoadedNodes = new HashSet<>();
+	public static Set<NodeId> overLoadedNodes = new HashSet<>();
 	
 	public final static DataFrame<?> df;
 	static {
@@ -95,7 +95,7 @@ public class StoreMessageGenerator implements Control {
 		generateStoreVals.add(value); // so that FindValGenerator will generate random available find operations
 		Message m = Message.makeStoreReq(sf);
 		m.timestamp = CommonState.getTime();
-		m.dest = key;
+		m.dest = NodeId.valueOf(key);
 		System.out.println("Debugging msgGenerator: "+sf);
 		return m;
 	}
@@ -134,7 +134,7 @@ public class StoreMessageGenerator implements Control {
 			
 			m = Message.makeStoreReq(sf);
 			m.timestamp = CommonState.getTime();
-			m.dest = hashed_key;
+			m.dest = NodeId.valueOf(hashed_key);
 			System.out.println("Debugging msgGenerator - trial:"+ retry +" : "+sf);
 			break;
 		}
@@ -156,7 +156,7 @@ public class StoreMessageGenerator implements Control {
 		// KademliaProtocol kd = new KademliaProtocol(newNodeId);
 		
 		KademliaObserver.supernode.routingTable.nodeId = KademliaObserver.supernodeId;
-		BigInteger[] nodeIdList = new BigInteger[networkSize];
+		NodeId[] nodeIdList = new NodeId[networkSize];
 		
 		for (int i=0; i< networkSize; i++) {
 			Node nd = Network.get(i);
@@ -198,7 +198,7 @@ public class StoreMessageGenerator implements Control {
 			Set<String> value = new HashSet<String>(Arrays.asList(((String) df.col(1).get(i)).split(", ")));
 			int weight = toIntExact((Long)df.col(2).get(i));
 			
-			BigInteger[] kClosestNodeIds = KademliaObserver.supernode.routingTable.getNeighbours2(hashed_key, KademliaObserver.supernode.getNodeId());
+			NodeId[] kClosestNodeIds = KademliaObserver.supernode.routingTable.getNeighbours2(NodeId.valueOf(hashed_key), KademliaObserver.supernode.getNodeId());
 			// kk value is the key that never returns by some or all nodes
 			// Object kk = "679695804144180158154957817433688509811568326000";
 
@@ -214,7 +214,7 @@ public class StoreMessageGenerator implements Control {
 			
 			boolean storeSucceed = false;
 			// loop through the close nodes list and store the selected(using the loop) kv into them
-			for (BigInteger closeNodeId : kClosestNodeIds) {
+			for (NodeId closeNodeId : kClosestNodeIds) {
 				Node tmp = nodeIdtoNode(closeNodeId, pid);
 				if(!tmp.isUp()) {
 					continue;
@@ -257,45 +257,13 @@ public class StoreMessageGenerator implements Control {
 	}
 	/**
 	 * Originally from {@link KademliaProtocol} class
-	 * Search through the network the Node having a specific node Id, by performing
-	 * binary search (we concern about the ordering of the network). Finding a node
-	 * by binary search
+	 * Return the Node having a specific node Id, using the global {@link NodeDirectory} (constant time)
 	 * 
-	 * @param searchNodeId BigInteger
+	 * @param searchNodeId NodeId
 	 * @return Node
 	 */
-	private Node nodeIdtoNode(BigInteger searchNodeId, int kademliaid) {
-		if (searchNodeId == null)
-			return null;
-
-		int inf = 0;
-		int sup = Network.size() - 1;
-		int m;
-
-		while (inf <= sup) {
-			m = (inf + sup) / 2;
-
-			BigInteger mId = ((KademliaProtocol) Network.get(m).getProtocol(kademliaid)).nodeId;
-
-			if (mId.equals(searchNodeId))
-				return Network.get(m);
-
-			if (mId.compareTo(searchNodeId) < 0)
-				inf = m + 1;
-			else
-				sup = m - 1;
-		}
-
-		// perform a traditional search for more reliability (maybe the network is not
-		// ordered)
-		BigInteger mId;
-		for (int i = Network.size() - 1; i >= 0; i--) {
-			mId = ((KademliaProtocol) Network.get(i).getProtocol(kademliaid)).nodeId;
-			if (mId.equals(searchNodeId))
-				return Network.get(i);
-		}
-
-		return null;
+	private Node nodeIdtoNode(NodeId searchNodeId, int kademliaid) {
+		return NodeDirectory.lookup(searchNodeId, kademliaid);
 	}
 	// ______________________________________________________________________________________________
 	/**
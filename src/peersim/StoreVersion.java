@@ -0,0 +1,52 @@
+package peersim;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+
+/**
+ * Version of the value stored under a key by the nodes of the network, telling the results cached before a store update from
+ * the current ones.<br>
+ * The version of a key starts at 0 and is increased by {@link #update(BigInteger)} every time a node stores a different value
+ * under the key. A result cached with {@link CachePolicy#set(BigInteger, Object, long)} keeps the version of its key, so a
+ * lookup can tell it is outdated without looking the key up again (see {@link AbstractCache}).
+ *
+ * @version 1.0
+ */
+public final class StoreVersion {
+
+	// versions of the keys cached or stored so far
+	private static final HashMap<BigInteger, StoreVersion> versions = new HashMap<BigInteger, StoreVersion>();
+
+	/**
+	 * current version of the value of the key
+	 */
+	int version = 0;
+
+	private StoreVersion() {
+	}
+
+	/**
+	 * @param key
+	 *            BigInteger
+	 * @return the version of the key, created at 0 if the key has none yet
+	 */
+	static StoreVersion of(BigInteger key) {
+		StoreVersion v = versions.get(key);
+		if (v == null) {
+			v = new StoreVersion();
+			versions.put(key, v);
+		}
+		return v;
+	}
+
+	/**
+	 * a node has stored a new value under the key: the results cached for the key so far are outdated
+	 *
+	 * @param key
+	 *            BigInteger
+	 */
+	public static void update(BigInteger key) {
+		of(key).version++;
+	}
+
+}
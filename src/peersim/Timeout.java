@@ -1,7 +1,5 @@
 package peersim;
 
-import java.math.BigInteger;
-
 /**
  * This class represent a timeout event.
  * 
@@ -18,7 +16,12 @@ public class Timeout extends SimpleEvent {
 	/**
 	 * The node which failed to response
 	 */
-	public BigInteger node;
+	public NodeId node;
+
+	/**
+	 * The handle of the node which failed to response, -1 if unknown
+	 */
+	public int nodeHandle;
 
 	/**
 	 * The id of the message sent to the node
@@ -30,21 +33,56 @@ public class Timeout extends SimpleEvent {
 	 */
 	public long opID;
 
+	/**
+	 * The type of the request (MSG_ROUTE or MSG_FINDVALUE)
+	 */
+	public int requestType = Message.MSG_ROUTE;
+
+	/**
+	 * true if this is the hedge timer of a request: when it expires before the response, the next closest node is queried
+	 * too
+	 */
+	public boolean hedge = false;
+
+	/**
+	 * true if this is the deadline of the operation opID rather than the timeout of a request
+	 */
+	public boolean opDeadline = false;
+
+	/**
+	 * The hedge timer of this request, null if none
+	 */
+	protected Timeout hedgeTimer = null;
+
+	/**
+	 * The id of the slow request this one hedges, -1 if none
+	 */
+	protected long hedgedMsgID = -1;
+
+	/**
+	 * Expiration time, and links of the slot list of the {@link TimerWheel} holding the timeout
+	 */
+	protected long deadline;
+	protected Timeout prevTimer;
+	protected Timeout nextTimer;
+	protected boolean scheduled = false;
+
 	// ______________________________________________________________________________________________
 	/**
 	 * Creates an empty message by using default values (message type = MSG_LOOKUP and <code>new String("")</code> value for the
 	 * body of the message)
 	 */
-	public Timeout(BigInteger node, long msgID, long opID) {
+	public Timeout(NodeId node, int nodeHandle, long msgID, long opID) {
 		super(TIMEOUT);
 		this.node = node;
+		this.nodeHandle = nodeHandle;
 		this.msgID = msgID;
 		this.opID = opID;
 	}
 
 	@Override
 	public String toString() {
-		return "Timeout [node=" + node + ", msgID=" + msgID + ", opID=" + opID + ", type=" + type + ", timestamp="
+		return "Timeout [node=" + node + ", nodeHandle=" + nodeHandle + ", msgID=" + msgID + ", opID=" + opID + ", requestType=" + requestType + ", type=" + type + ", timestamp="
 				+ timestamp + ", getType()=" + getType() + ", getClass()=" + getClass() + ", hashCode()=" + hashCode()
 				+ ", toString()=" + super.toString() + "]";
 	}
@@ -0,0 +1,216 @@
+package peersim;
+
+import java.util.ArrayList;
+
+/**
+ * Hashed timer wheel keeping the pending {@link Timeout}s of a node.<br>
+ * A timeout is hashed in the slot (deadline / resolution) mod slots, a doubly linked list, so it is scheduled and cancelled in
+ * constant time. Only one {@link #TICK} event per node is kept in the simulator, at the earliest pending deadline: a request
+ * that is answered in time is cancelled from the wheel and never reaches the event queue nor processEvent.<br>
+ * The wheel doesn't schedule the tick events itself (it doesn't know the node and the protocol), it only tells when a new
+ * one is needed ({@link #needsTick(long, long)}).
+ *
+ * @version 1.0
+ */
+public class TimerWheel {
+
+	/**
+	 * Event type of the tick delivered to the node when the earliest pending timeout expires
+	 */
+	public static final int TICK = 101;
+
+	// heads of the slot lists
+	private final Timeout[] slots;
+
+	private final int mask;
+
+	// width of a slot in simulated time units
+	private final long resolution;
+
+	// number of pending timeouts
+	private int size = 0;
+
+	// last tick processed by expire
+	private long cursor = -1;
+
+	// time of the tick event pending in the simulator, -1 if none
+	private long tickAt = -1;
+
+	/**
+	 * @param slots
+	 *            number of slots, rounded up to a power of two
+	 * @param resolution
+	 *            width of a slot in simulated time units
+	 */
+	public TimerWheel(int slots, long resolution) {
+		int n = Integer.highestOneBit(Math.max(slots - 1, 1)) << 1;
+		this.slots = new Timeout[n];
+		this.mask = n - 1;
+		this.resolution = Math.max(resolution, 1);
+	}
+
+	/**
+	 * schedule a timeout to expire at the given time
+	 *
+	 * @param t
+	 *            Timeout, not already scheduled
+	 * @param deadline
+	 *            absolute simulated time
+	 */
+	public void schedule(Timeout t, long deadline) {
+		long tick = deadline / resolution;
+		if (cursor < 0 || tick < cursor)
+			cursor = tick;
+		int slot = (int) (tick & mask);
+		t.deadline = deadline;
+		t.prevTimer = null;
+		t.nextTimer = slots[slot];
+		if (slots[slot] != null)
+			slots[slot].prevTimer = t;
+		slots[slot] = t;
+		t.scheduled = true;
+		size++;
+	}
+
+	/**
+	 * cancel a pending timeout (e.g. because the response has arrived)
+	 *
+	 * @param t
+	 *            Timeout
+	 * @return true if the timeout was pending
+	 */
+	public boolean cancel(Timeout t) {
+		if (!t.scheduled)
+			return false;
+		unlink(t);
+		return true;
+	}
+
+	/**
+	 * remove and return the timeouts expired at the given time
+	 *
+	 * @param now
+	 *            current simulated time
+	 * @return the expired timeouts, sorted by deadline
+	 */
+	public ArrayList<Timeout> expire(long now) {
+		ArrayList<Timeout> expired = new ArrayList<Timeout>();
+		tickAt = -1;
+		if (size == 0)
+			return expired;
+
+		long tick = now / resolution;
+		long from = (tick - cursor > mask) ? tick - mask : cursor;
+		for (long i = from; i <= tick; i++) {
+			Timeout t = slots[(int) (i & mask)];
+			while (t != null) {
+				Timeout next = t.nextTimer;
+				if (t.deadline <= now) {
+					unlink(t);
+					expired.add(t);
+				}
+				t = next;
+			}
+		}
+		// the current slot may still hold timeouts expiring later in the same tick
+		cursor = tick;
+
+		if (expired.size() > 1) {
+			expired.sort((a, b) -> Long.compare(a.deadline, b.deadline));
+		}
+		return expired;
+	}
+
+	/**
+	 * return the earliest deadline of the pending timeouts, visiting the slots from the current one on
+	 *
+	 * @param now
+	 *            current simulated time
+	 * @return the deadline, -1 if no timeout is pending
+	 */
+	public long nextDeadline(long now) {
+		if (size == 0)
+			return -1;
+
+		long tick = now / resolution;
+		for (int i = 0; i <= mask; i++, tick++) {
+			long min = -1;
+			for (Timeout t = slots[(int) (tick & mask)]; t != null; t = t.nextTimer) {
+				if (t.deadline / resolution <= tick && (min < 0 || t.deadline < min))
+					min = t.deadline;
+			}
+			if (min >= 0)
+				return min;
+		}
+
+		// all the timeouts are more than a revolution away
+		long min = -1;
+		for (Timeout head : slots) {
+			for (Timeout t = head; t != null; t = t.nextTimer) {
+				if (min < 0 || t.deadline < min)
+					min = t.deadline;
+			}
+		}
+		return min;
+	}
+
+	/**
+	 * tell whether a tick event has to be scheduled for a timeout expiring at the given deadline, i.e. there isn't a tick
+	 * pending at or before it. A tick that should have been delivered before now has been dropped by the simulator (the node
+	 * was down) and is not considered pending.
+	 *
+	 * @param deadline
+	 *            long
+	 * @param now
+	 *            current simulated time
+	 * @return boolean
+	 */
+	public boolean needsTick(long deadline, long now) {
+		return tickAt < now || deadline < tickAt;
+	}
+
+	/**
+	 * record the time of the tick event just scheduled
+	 *
+	 * @param time
+	 *            long
+	 */
+	public void setTick(long time) {
+		tickAt = time;
+	}
+
+	/**
+	 * @param now
+	 *            current simulated time
+	 * @return true if a tick delivered now is the one pending, false if it has been superseded by an earlier one
+	 */
+	public boolean isTick(long now) {
+		return tickAt == now;
+	}
+
+	/**
+	 * @return number of pending timeouts
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void unlink(Timeout t) {
+		if (t.prevTimer != null)
+			t.prevTimer.nextTimer = t.nextTimer;
+		else
+			slots[(int) ((t.deadline / resolution) & mask)] = t.nextTimer;
+		if (t.nextTimer != null)
+			t.nextTimer.prevTimer = t.prevTimer;
+		t.prevTimer = null;
+		t.nextTimer = null;
+		t.scheduled = false;
+		size--;
+	}
+
+	@Override
+	public String toString() {
+		return "TimerWheel [slots=" + slots.length + ", resolution=" + resolution + ", size=" + size + ", tickAt=" + tickAt + "]";
+	}
+
+}
@@ -112,7 +112,7 @@ public class Turbulence implements Control {
 				Node n2 = (Node) o2;
 				KademliaProtocol p1 = (KademliaProtocol) (n1.getProtocol(kademliaid));
 				KademliaProtocol p2 = (KademliaProtocol) (n2.getProtocol(kademliaid));
-				return Util.put0(p1.nodeId).compareTo(Util.put0(p2.nodeId));
+				return p1.nodeId.compareTo(p2.nodeId);
 			}
 
 			// ______________________________________________________________________________________
@@ -138,8 +138,9 @@ public class Turbulence implements Control {
 		// set node Id
 		UniformRandomGenerator urg = new UniformRandomGenerator(KademliaCommonConfig.BITS, CommonState.r);
 		((KademliaProtocol) (newNode.getProtocol(kademliaid))).setNodeId(urg.generate());
+		newKad.setHandle(NodeDirectory.register(newKad.nodeId, newNode));
 
-		// sort network
+		// sort network (the directory maps ids to nodes, not to positions, so it is not affected)
 		sortNet();
 
 		// select one random bootstrap node
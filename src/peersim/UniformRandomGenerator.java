@@ -35,8 +35,8 @@ public final class UniformRandomGenerator {
 	private final int bits;
 
 	// ______________________________________________________________________________________________
-	private final BigInteger nextRand() {
-		return new BigInteger(bits, rnd);
+	private final NodeId nextRand() {
+		return NodeId.valueOf(new BigInteger(bits, rnd));
 	}
 
 	// ______________________________________________________________________________________________
@@ -71,9 +71,9 @@ public final class UniformRandomGenerator {
 	 * Returns a unique 128-bit random number. The number is also put into an internal store to check it will be never returned
 	 * again
 	 * 
-	 * @return BigInteger
+	 * @return NodeId
 	 */
-	public final BigInteger generate() {
+	public final NodeId generate() {
 		return nextRand();
 	}
 	// ______________________________________________________________________________________________
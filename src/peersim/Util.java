@@ -1,9 +1,11 @@
 package peersim;
 
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Comparator;
 
 /**
- * Some utility and mathematical function to work with BigInteger numbers and strings.
+ * Some utility and mathematical function to work with BigInteger numbers, NodeIds and strings.
  * 
  * @author Daniele Furlan, Maurizio Bonani
  * @version 1.0
@@ -21,17 +23,70 @@ public class Util {
 	 * @return int
 	 */
 	public static final int prefixLen(BigInteger b1, BigInteger b2) {
+		// the numbers are compared over the canonical length of a nodeid, the first differing bit is the highest bit of the XOR
+		int len = Math.max(KademliaCommonConfig.BITS, Math.max(b1.bitLength(), b2.bitLength()));
+		return len - b1.xor(b2).bitLength();
+	}
 
-		String s1 = Util.put0(b1);
-		String s2 = Util.put0(b2);
+	/**
+	 * Given two ids, returns the length of the common prefix, i.e. how many bits they have in common from the leftmost side
+	 * of the id
+	 * 
+	 * @param id1
+	 *            NodeId
+	 * @param id2
+	 *            NodeId
+	 * @return int
+	 */
+	public static final int prefixLen(NodeId id1, NodeId id2) {
+		return id1.prefixLen(id2);
+	}
+
+	/**
+	 * return the index of the k-bucket of the node 'self' where 'id' belongs to. The k-bucket i contains the ids that share
+	 * exactly i leading bits with 'self' (the bucket BITS only contains 'self'), so the index is the common prefix length,
+	 * obtained from the leading zeroes of (self XOR id).
+	 * 
+	 * @param self
+	 *            NodeId of the owner of the routing table
+	 * @param id
+	 *            NodeId
+	 * @return int between 0 and KademliaCommonConfig.BITS
+	 */
+	public static final int bucketIndex(NodeId self, NodeId id) {
+		return self.prefixLen(id);
+	}
 
-		int i = 0;
-		for (i = 0; i < s1.length(); i++) {
-			if (s1.charAt(i) != s2.charAt(i))
-				return i;
-		}
+	/**
+	 * rank the first 'len' ids of the array by their distance from 'target' in a single call, the closest one first. The
+	 * array is sorted in place and no distance is materialized.
+	 * 
+	 * @param target
+	 *            NodeId
+	 * @param ids
+	 *            candidate ids (no null values in the first 'len' positions)
+	 * @param len
+	 *            number of candidates to rank
+	 */
+	public static final void sortByDistance(final NodeId target, NodeId[] ids, int len) {
+		Arrays.sort(ids, 0, len, new Comparator<NodeId>() {
+			public int compare(NodeId a, NodeId b) {
+				return target.compareDistance(a, b);
+			}
+		});
+	}
 
-		return i;
+	/**
+	 * return the distance between two ids wich is defined as (a XOR b)
+	 * 
+	 * @param a
+	 *            NodeId
+	 * @param b
+	 *            NodeId
+	 * @return NodeId
+	 */
+	public static final NodeId distance(NodeId a, NodeId b) {
+		return a.xor(b);
 	}
 
 	/**
@@ -59,10 +114,14 @@ public class Util {
 		if (b == null)
 			return null;
 		String s = b.toString(2); // base 2
-		while (s.length() < KademliaCommonConfig.BITS) {
-			s = "0" + s;
-		}
-		return s;
+		if (s.length() >= KademliaCommonConfig.BITS)
+			return s;
+
+		char[] res = new char[KademliaCommonConfig.BITS];
+		int pad = res.length - s.length();
+		Arrays.fill(res, 0, pad, '0');
+		s.getChars(0, s.length(), res, pad);
+		return new String(res);
 	}
 
 }
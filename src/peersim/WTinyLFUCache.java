@@ -0,0 +1,180 @@
+package peersim;
+
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * Window TinyLFU {@link CachePolicy} (Einav, Friedman and Manes, "TinyLFU: A Highly Efficient Cache Admission Policy",
+ * 2017).<br>
+ * A new key enters a small LRU window (1% of the capacity). The key pushed out of the window is admitted to the main cache,
+ * a segmented LRU split in a probation and a protected (80%) segment, only if the {@link FrequencySketch} estimates it has
+ * been accessed more often than the key the main cache would evict for it; otherwise the key itself is evicted. A key
+ * accessed again in probation moves to the protected segment, whose least recently used key goes back to probation when the
+ * segment is full. All the segments are ordered from the least to the most recently used key.<br>
+ * With a byte budget, the least recently used keys of probation, then of the protected segment, then of the window are
+ * evicted until the weight of the cached values fits.
+ *
+ * @version 1.0
+ */
+public class WTinyLFUCache extends AbstractCache {
+
+	private final int capacity;
+
+	private final long maxBytes;
+
+	private long weight = 0;
+
+	private final int windowCapacity;
+
+	private final int protectedCapacity;
+
+	private final LinkedHashMap<BigInteger, Object> window = new LinkedHashMap<BigInteger, Object>();
+
+	private final LinkedHashMap<BigInteger, Object> probation = new LinkedHashMap<BigInteger, Object>();
+
+	private final LinkedHashMap<BigInteger, Object> protect = new LinkedHashMap<BigInteger, Object>();
+
+	private final FrequencySketch sketch;
+
+	/**
+	 * @param capacity
+	 *            maximum number of entries
+	 * @param maxBytes
+	 *            maximum weight of the values (see {@link CachePolicy#weigh(Object)}), 0 for no limit
+	 */
+	public WTinyLFUCache(int capacity, long maxBytes) {
+		this.capacity = capacity;
+		this.maxBytes = maxBytes;
+		windowCapacity = Math.max(1, capacity / 100);
+		protectedCapacity = (capacity - windowCapacity) * 8 / 10;
+		sketch = new FrequencySketch(capacity);
+	}
+
+	@Override
+	protected Object read(BigInteger key) {
+		sketch.increment(key);
+		Object value = window.remove(key);
+		if (value != null) {
+			window.put(key, value);
+			return value;
+		}
+		value = protect.remove(key);
+		if (value != null) {
+			protect.put(key, value);
+			return value;
+		}
+		value = probation.remove(key);
+		if (value != null)
+			promote(key, value);
+		return value;
+	}
+
+	@Override
+	public boolean set(BigInteger key, Object value) {
+		if (window.containsKey(key)) {
+			weight -= CachePolicy.weigh(window.remove(key));
+			window.put(key, value);
+		} else if (protect.containsKey(key)) {
+			weight -= CachePolicy.weigh(protect.remove(key));
+			protect.put(key, value);
+		} else if (probation.containsKey(key)) {
+			weight -= CachePolicy.weigh(probation.remove(key));
+			promote(key, value);
+		} else if (capacity <= 0) {
+			return false;
+		} else { // the access is counted by the lookup: a result is cached after the lookup of its key missed
+			window.put(key, value);
+			if (window.size() > windowCapacity)
+				evictWindow();
+		}
+		weight += CachePolicy.weigh(value);
+		fit();
+		notifyRemovals();
+		return contains(key);
+	}
+
+	@Override
+	protected Object unlink(BigInteger key) {
+		Object value = window.remove(key);
+		if (value == null)
+			value = probation.remove(key);
+		if (value == null)
+			value = protect.remove(key);
+		weight -= CachePolicy.weigh(value);
+		return value;
+	}
+
+	// the candidate pushed out of the window competes with the victim of the main cache
+	private void evictWindow() {
+		BigInteger candidate = eldest(window);
+		Object candidateValue = window.remove(candidate);
+		int mainCapacity = capacity - windowCapacity;
+		if (probation.size() + protect.size() < mainCapacity) {
+			probation.put(candidate, candidateValue);
+			return;
+		}
+		LinkedHashMap<BigInteger, Object> segment = probation.isEmpty() ? protect : probation;
+		BigInteger victim = segment.isEmpty() ? null : eldest(segment);
+		if (victim != null && sketch.frequency(candidate) > sketch.frequency(victim)) {
+			Object victimValue = segment.remove(victim);
+			weight -= CachePolicy.weigh(victimValue);
+			probation.put(candidate, candidateValue);
+			removed(victim, victimValue, REMOVED_CAPACITY);
+		} else {
+			weight -= CachePolicy.weigh(candidateValue);
+			removed(candidate, candidateValue, REMOVED_CAPACITY);
+		}
+	}
+
+	// evict entries until their weight fits in the byte budget
+	private void fit() {
+		while (maxBytes > 0 && weight > maxBytes) {
+			LinkedHashMap<BigInteger, Object> segment = !probation.isEmpty() ? probation : !protect.isEmpty() ? protect : window;
+			BigInteger victim = eldest(segment);
+			Object value = segment.remove(victim);
+			weight -= CachePolicy.weigh(value);
+			removed(victim, value, REMOVED_CAPACITY);
+		}
+	}
+
+	// move a key accessed in probation to the protected segment
+	private void promote(BigInteger key, Object value) {
+		protect.put(key, value);
+		if (protect.size() > protectedCapacity) {
+			BigInteger demoted = eldest(protect);
+			probation.put(demoted, protect.remove(demoted));
+		}
+	}
+
+	private static BigInteger eldest(LinkedHashMap<BigInteger, Object> segment) {
+		Iterator<BigInteger> it = segment.keySet().iterator();
+		return it.next();
+	}
+
+	@Override
+	protected boolean contains(BigInteger key) {
+		return window.containsKey(key) || probation.containsKey(key) || protect.containsKey(key);
+	}
+
+	@Override
+	public Set<BigInteger> allKeys() {
+		Set<BigInteger> keys = new HashSet<BigInteger>(window.keySet());
+		keys.addAll(probation.keySet());
+		keys.addAll(protect.keySet());
+		return keys;
+	}
+
+	@Override
+	public int getSize() {
+		return window.size() + probation.size() + protect.size();
+	}
+
+	@Override
+	public long getWeight() {
+		return weight;
+	}
+
+}